@@ -0,0 +1,57 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The activation function one value at a time and a whole C1 layer at a time
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ActivationKernelBenchmarks {
+
+    @Param({"fast", "exact"})
+    public String activation;
+
+    private Object activationFunction;
+    private double[] activations;
+    private double input;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(313);
+        activationFunction = activation.equals("fast") ? Network.fastActivation : Network.exactActivation;
+        activations = new double[6*28*28];
+        for(int i = 0; i < activations.length; i++){
+            activations[i] = random.nextGaussian();
+        }
+        input = random.nextGaussian();
+    }
+
+    @Benchmark
+    public double activate() throws Throwable {
+        return (double)Network.activate.invokeExact(activationFunction, input);
+    }
+
+    @Benchmark
+    public double[] activateC1Maps() throws Throwable {
+        Network.activateArray.invokeExact(activationFunction, activations, 0, activations.length, 0.0);
+        return activations;
+    }
+}
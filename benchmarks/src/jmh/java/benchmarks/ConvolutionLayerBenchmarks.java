@@ -0,0 +1,87 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The convolution layers of each convolution engine with each activation function, on random
+ * weights and inputs: C1, C3 and C5 on their own, and the fused C1+S2 and C3+S4 kernels
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConvolutionLayerBenchmarks {
+
+    @Param({"direct", "im2col"})
+    public String engine;
+
+    @Param({"fast", "exact"})
+    public String activation;
+
+    private Object convolutionEngine;
+    private Object activationFunction;
+    private Object weights;
+    private Object ws;
+
+    @Setup
+    public void setup() throws Throwable {
+        Random random = new Random(313);
+        convolutionEngine = engine.equals("direct") ? Network.directEngine : Network.newIm2colConvolution.invokeExact();
+        activationFunction = activation.equals("fast") ? Network.fastActivation : Network.exactActivation;
+        weights = Network.newWeights.invokeExact();
+        Network.initializeWeights.invokeExact(weights);
+        ws = Network.newWorkspace.invokeExact();
+        for(Object layer : new Object[]{Network.padded.invokeExact(ws), Network.c1.invokeExact(ws), Network.s2.invokeExact(ws),
+                Network.s4.invokeExact(ws), Network.c5.invokeExact(ws), Network.f6.invokeExact(ws)}){
+            double[] data = (double[])Network.tensorData.invokeExact(layer);
+            for(int i = 0; i < data.length; i++){
+                data[i] = random.nextDouble() - 0.5;
+            }
+        }
+    }
+
+    @Benchmark
+    public Object convolveC1() throws Throwable {
+        Network.convolveC1.invokeExact(convolutionEngine, weights, activationFunction, ws);
+        return ws;
+    }
+
+    @Benchmark
+    public Object convolveC3() throws Throwable {
+        Network.convolveC3.invokeExact(convolutionEngine, weights, activationFunction, ws);
+        return ws;
+    }
+
+    @Benchmark
+    public Object convolveC5() throws Throwable {
+        Network.convolveC5.invokeExact(convolutionEngine, weights, activationFunction, ws);
+        return ws;
+    }
+
+    @Benchmark
+    public Object convolvePoolC1() throws Throwable {
+        Network.convolvePoolC1.invokeExact(convolutionEngine, weights, activationFunction, ws, false);
+        return ws;
+    }
+
+    @Benchmark
+    public Object convolvePoolC3() throws Throwable {
+        Network.convolvePoolC3.invokeExact(convolutionEngine, weights, activationFunction, ws, false);
+        return ws;
+    }
+}
@@ -0,0 +1,56 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading the MNIST training set: mapping and validating the IDX files, and mapping them then
+ * normalizing every image the way the training pipeline does. The data set is read from the
+ * directory in the mnist.dir system property, MNIST by default
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DatasetBenchmarks {
+
+    private String images;
+    private String labels;
+    private Object image;
+
+    @Setup
+    public void setup() throws Throwable {
+        File directory = new File(System.getProperty("mnist.dir", "MNIST"));
+        images = new File(directory, "train-images-idx3-ubyte").getPath();
+        labels = new File(directory, "train-labels-idx1-ubyte").getPath();
+        image = Network.newTensor.invokeExact(new int[]{28, 28});
+    }
+
+    @Benchmark
+    public Object load() throws Throwable {
+        return Network.loadDataset.invokeExact(images, labels);
+    }
+
+    @Benchmark
+    public Object loadAndNormalizeAll() throws Throwable {
+        Object dataset = Network.loadDataset.invokeExact(images, labels);
+        int size = (int)Network.datasetSize.invokeExact(dataset);
+        for(int i = 0; i < size; i++){
+            Network.copyImage.invokeExact(dataset, i, image);
+        }
+        return image;
+    }
+}
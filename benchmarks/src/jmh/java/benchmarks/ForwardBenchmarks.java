@@ -0,0 +1,67 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Array;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole network: the latency of classifying one image, and the throughput of classifying
+ * a batch of images across every core with predictBatch
+ */
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ForwardBenchmarks {
+
+    private static final int batchSize = 1024;
+
+    @Param({"direct", "im2col"})
+    public String engine;
+
+    private Object net;
+    private Object image;
+    private Object batch;
+
+    @Setup
+    public void setup() throws Throwable {
+        Random random = new Random(313);
+        net = Network.randomNetwork();
+        if(engine.equals("im2col")){
+            Network.setConvolutionEngine.invokeExact(net, Network.newIm2colConvolution.invokeExact());
+        }
+        image = Network.randomImage(random);
+        batch = Array.newInstance(Network.tensor, batchSize);
+        for(int i = 0; i < batchSize; i++){
+            Array.set(batch, i, Network.randomImage(random));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int forwardSingleImage() throws Throwable {
+        return (int)Network.predict.invokeExact(net, image);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(batchSize)
+    public int[] predictBatchImagesPerSecond() throws Throwable {
+        return (int[])Network.predictBatch.invokeExact(net, batch);
+    }
+}
@@ -0,0 +1,78 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The kernels that do not depend on the engine or activation function, on random weights and
+ * inputs: a single 5x5 convolution pixel, S2 pooling and the F6 and output dot products
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KernelBenchmarks {
+
+    private Object weights;
+    private Object ws;
+    private Object net;
+    private Object padded;
+    private Object c1Filters;
+
+    @Setup
+    public void setup() throws Throwable {
+        Random random = new Random(313);
+        net = Network.randomNetwork();
+        weights = Network.newWeights.invokeExact();
+        Network.initializeWeights.invokeExact(weights);
+        ws = Network.newWorkspace.invokeExact();
+        padded = Network.padded.invokeExact(ws);
+        c1Filters = Network.c1Filters.invokeExact(weights);
+        for(Object layer : new Object[]{Network.padded.invokeExact(ws), Network.c1.invokeExact(ws), Network.s2.invokeExact(ws),
+                Network.s4.invokeExact(ws), Network.c5.invokeExact(ws), Network.f6.invokeExact(ws)}){
+            double[] data = (double[])Network.tensorData.invokeExact(layer);
+            for(int i = 0; i < data.length; i++){
+                data[i] = random.nextDouble() - 0.5;
+            }
+        }
+    }
+
+    @Benchmark
+    public double convolvePixel() throws Throwable {
+        return (double)Network.convolvePixel.invokeExact(padded, 0, c1Filters, 3, 13, 17);
+    }
+
+    @Benchmark
+    public Object poolS2() throws Throwable {
+        Network.pool.invokeExact(Network.c1.invokeExact(ws), Network.s2Weights.invokeExact(weights), Network.s2Biases.invokeExact(weights),
+                2, 2, 2, Network.s2Means.invokeExact(ws), Network.s2.invokeExact(ws));
+        return ws;
+    }
+
+    @Benchmark
+    public Object fullyConnectF6() throws Throwable {
+        Network.fullyConnect.invokeExact(net, Network.c5.invokeExact(ws), Network.f6Weights.invokeExact(weights),
+                Network.f6Biases.invokeExact(weights), Network.f6.invokeExact(ws));
+        return ws;
+    }
+
+    @Benchmark
+    public Object fullyConnectOutput() throws Throwable {
+        Network.fullyConnect.invokeExact(net, Network.f6.invokeExact(ws), Network.outputWeights.invokeExact(weights),
+                (Object)null, Network.output.invokeExact(ws));
+        return ws;
+    }
+}
@@ -0,0 +1,210 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Handles onto the network's classes for the benchmarks.
+ *
+ * The network is written in the default package, which code in a named package cannot refer to,
+ * and JMH requires benchmarks to be in a named package. Every class, constructor, method and
+ * field the benchmarks use is therefore looked up once here, with every network type in its
+ * signature erased to Object. The handles are static final, so the JIT inlines invokeExact
+ * calls through them exactly like direct calls and the measurements are not affected.
+ */
+final class Network {
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    static final Class<?> tensor = type("Tensor");
+    static final Class<?> weights = type("Weights");
+    static final Class<?> workspace = type("Workspace");
+    static final Class<?> activation = type("Activation");
+    static final Class<?> engine = type("ConvolutionEngine");
+    static final Class<?> lenet5 = type("LeNet5");
+    static final Class<?> dataset = type("MnistDataset");
+    static final Class<?> directConvolution = type("DirectConvolution");
+    static final Class<?> kernels = type("Kernels");
+
+    //Construction
+    static final MethodHandle newTensor = constructor(tensor, int[].class);
+    static final MethodHandle newWeights = constructor(weights);
+    static final MethodHandle newWorkspace = constructor(workspace);
+    static final MethodHandle newLeNet5 = constructor(lenet5);
+    static final MethodHandle newIm2colConvolution = constructor(type("Im2colConvolution"));
+    static final MethodHandle newDirectConvolution = constructor(directConvolution, kernels);
+    static final MethodHandle newScalarKernels = constructor(type("ScalarKernels"));
+    static final MethodHandle initializeWeights = staticMethod(lenet5, "initializeWeights", void.class, weights);
+    static final MethodHandle setWeights = setter(lenet5, "weights", weights);
+    static final MethodHandle setConvolutionEngine = virtual(lenet5, "setConvolutionEngine", void.class, engine);
+    static final MethodHandle tensorData = virtual(tensor, "data", double[].class);
+
+    //Constants
+    static final Object directEngine = constant(engine, "DIRECT");
+    static final Object exactActivation = constant(activation, "EXACT");
+    static final Object fastActivation = constant(activation, "FAST");
+
+    //Weights and workspace fields
+    static final MethodHandle c1Filters = getter(weights, "c1Filters", tensor);
+    static final MethodHandle s2Weights = getter(weights, "s2Weights", tensor);
+    static final MethodHandle s2Biases = getter(weights, "s2Biases", tensor);
+    static final MethodHandle f6Weights = getter(weights, "f6Weights", tensor);
+    static final MethodHandle f6Biases = getter(weights, "f6Biases", tensor);
+    static final MethodHandle outputWeights = getter(weights, "outputWeights", tensor);
+    static final MethodHandle padded = getter(workspace, "padded", tensor);
+    static final MethodHandle c1 = getter(workspace, "c1", tensor);
+    static final MethodHandle s2Means = getter(workspace, "s2Means", tensor);
+    static final MethodHandle s2 = getter(workspace, "s2", tensor);
+    static final MethodHandle s4 = getter(workspace, "s4", tensor);
+    static final MethodHandle c5 = getter(workspace, "c5", tensor);
+    static final MethodHandle f6 = getter(workspace, "f6", tensor);
+    static final MethodHandle output = getter(workspace, "output", tensor);
+
+    //Kernels
+    static final MethodHandle convolvePixel = staticMethod(directConvolution, "convolvePixel", double.class,
+            tensor, int.class, tensor, int.class, int.class, int.class);
+    static final MethodHandle convolveC1 = virtual(engine, "convolveC1", void.class, weights, activation, workspace);
+    static final MethodHandle convolveC3 = virtual(engine, "convolveC3", void.class, weights, activation, workspace);
+    static final MethodHandle convolveC5 = virtual(engine, "convolveC5", void.class, weights, activation, workspace);
+    static final MethodHandle convolvePoolC1 = virtual(engine, "convolvePoolC1", void.class, weights, activation, workspace, boolean.class);
+    static final MethodHandle convolvePoolC3 = virtual(engine, "convolvePoolC3", void.class, weights, activation, workspace, boolean.class);
+    static final MethodHandle pool = staticMethod(lenet5, "pool", void.class,
+            tensor, tensor, tensor, int.class, int.class, int.class, tensor, tensor);
+    static final MethodHandle activate = virtual(activation, "apply", double.class, double.class);
+    static final MethodHandle activateArray = virtual(activation, "apply", void.class, double[].class, int.class, int.class, double.class);
+    static final MethodHandle fullyConnect = virtual(lenet5, "fullyConnect", void.class, tensor, tensor, tensor, tensor);
+    static final MethodHandle setKernels = virtual(lenet5, "setKernels", void.class, kernels);
+    static final MethodHandle dot = virtual(kernels, "dot", double.class, double[].class, int.class, double[].class, int.class, int.class);
+    static final MethodHandle axpy = virtual(kernels, "axpy", void.class, double.class, double[].class, int.class, double[].class, int.class, int.class);
+    static final MethodHandle convolveRow = virtual(kernels, "convolveRow", void.class,
+            double[].class, int.class, int.class, double[].class, int.class, double[].class, int.class, int.class);
+
+    //Whole network and data set
+    static final MethodHandle predict = virtual(lenet5, "predict", int.class, tensor);
+    static final MethodHandle predictBatch = virtual(lenet5, "predictBatch", int[].class, tensor.arrayType());
+    static final MethodHandle loadDataset = staticMethod(dataset, "load", dataset, String.class, String.class);
+    static final MethodHandle datasetSize = virtual(dataset, "size", int.class);
+    static final MethodHandle copyImage = virtual(dataset, "copyImage", void.class, int.class, tensor);
+
+    private Network() {
+    }
+
+    /**
+     * @return a LeNet5 with the usual random initial weights, which classifies images without a training set
+     */
+    static Object randomNetwork() throws Throwable {
+        Object net = newLeNet5.invokeExact();
+        Object w = newWeights.invokeExact();
+        initializeWeights.invokeExact(w);
+        setWeights.invokeExact(net, w);
+        return net;
+    }
+
+    /**
+     * @param name - scalar or vector
+     * @return the ScalarKernels or a VectorApiKernels, which needs --add-modules jdk.incubator.vector
+     */
+    static Object kernels(String name) throws Throwable {
+        if(name.equals("scalar")){
+            return newScalarKernels.invokeExact();
+        }
+        //Looked up only when asked for, so the other benchmarks run without the incubator module
+        return constructor(type("VectorApiKernels")).invokeExact();
+    }
+
+    /**
+     * @return a 28x28 Tensor of uniform random pixels in [0, 1)
+     */
+    static Object randomImage(java.util.Random random) throws Throwable {
+        Object image = newTensor.invokeExact(new int[]{28, 28});
+        double[] data = (double[])tensorData.invokeExact(image);
+        for(int i = 0; i < data.length; i++){
+            data[i] = random.nextDouble();
+        }
+        return image;
+    }
+
+    private static Class<?> type(String name) {
+        try{
+            return Class.forName(name);
+        }catch(ClassNotFoundException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandles.Lookup access(Class<?> owner) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(owner, lookup);
+    }
+
+    /**
+     * Replaces every network type, and array of network types, in the handle's signature with Object
+     */
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for(int i = 0; i < type.parameterCount(); i++){
+            if(isNetworkType(type.parameterType(i))){
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if(isNetworkType(type.returnType())){
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    private static boolean isNetworkType(Class<?> type) {
+        while(type.isArray()){
+            type = type.getComponentType();
+        }
+        return !type.isPrimitive() && type.getPackageName().isEmpty();
+    }
+
+    private static MethodHandle constructor(Class<?> owner, Class<?>... parameters) {
+        try{
+            return erase(access(owner).findConstructor(owner, MethodType.methodType(void.class, parameters)));
+        }catch(ReflectiveOperationException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle staticMethod(Class<?> owner, String name, Class<?> result, Class<?>... parameters) {
+        try{
+            return erase(access(owner).findStatic(owner, name, MethodType.methodType(result, parameters)));
+        }catch(ReflectiveOperationException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle virtual(Class<?> owner, String name, Class<?> result, Class<?>... parameters) {
+        try{
+            return erase(access(owner).findVirtual(owner, name, MethodType.methodType(result, parameters)));
+        }catch(ReflectiveOperationException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle getter(Class<?> owner, String name, Class<?> type) {
+        try{
+            return erase(access(owner).findGetter(owner, name, type));
+        }catch(ReflectiveOperationException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle setter(Class<?> owner, String name, Class<?> type) {
+        try{
+            return erase(access(owner).findSetter(owner, name, type));
+        }catch(ReflectiveOperationException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object constant(Class<?> owner, String name) {
+        try{
+            return access(owner).findStaticGetter(owner, name, owner).invoke();
+        }catch(Throwable e){
+            throw new IllegalStateException(e);
+        }
+    }
+}
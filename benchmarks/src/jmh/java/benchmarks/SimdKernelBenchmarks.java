@@ -0,0 +1,80 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The scalar kernels against the Vector API kernels at the lengths the network uses them:
+ * a C5 window and an F6 row for dot, an F6 gradient row for axpy, and one row of C1 and of C3
+ * for convolveRow
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SimdKernelBenchmarks {
+
+    @Param({"scalar", "vector"})
+    public String kernels;
+
+    private Object implementation;
+    private final double[] a = new double[32*32];
+    private final double[] b = new double[32*32];
+    private final double[] filter = new double[25];
+    private final double[] output = new double[28];
+
+    @Setup
+    public void setup() throws Throwable {
+        implementation = Network.kernels(kernels);
+        Random random = new Random(313);
+        for(int i = 0; i < a.length; i++){
+            a[i] = random.nextDouble() - 0.5;
+            b[i] = random.nextDouble() - 0.5;
+        }
+        for(int i = 0; i < filter.length; i++){
+            filter[i] = random.nextDouble() - 0.5;
+        }
+    }
+
+    @Benchmark
+    public double dotC5Window() throws Throwable {
+        return (double)Network.dot.invokeExact(implementation, a, 0, b, 0, 25);
+    }
+
+    @Benchmark
+    public double dotF6Row() throws Throwable {
+        return (double)Network.dot.invokeExact(implementation, a, 0, b, 0, 120);
+    }
+
+    @Benchmark
+    public double[] axpyF6Row() throws Throwable {
+        Network.axpy.invokeExact(implementation, 1e-3, a, 0, b, 0, 120);
+        return b;
+    }
+
+    @Benchmark
+    public double[] convolveRowC1() throws Throwable {
+        Network.convolveRow.invokeExact(implementation, a, 0, 32, filter, 0, output, 0, 28);
+        return output;
+    }
+
+    @Benchmark
+    public double[] convolveRowC3() throws Throwable {
+        Network.convolveRow.invokeExact(implementation, a, 0, 14, filter, 0, output, 0, 10);
+        return output;
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * The squashing function applied to the weighted sums of the convolution layers, the scaled
+ * hyperbolic tangent f(x) = amplitude * tanh(originSlope * x) recommended in Appendix A of
+ * <a href="https://ieeexplore.ieee.org/stamp/stamp.jsp?tp=&arnumber=726791">
+ *     Gradient-Based Learning Applied to Document Recognition by Yann LeCun et al
+ * </a>
+ * With these constants f(1) = 1 and f(-1) = -1, and the gain is close to 1 over the normal operating range.
+ *
+ * Implementations hold no mutable state and can be shared by every thread.
+ */
+public interface Activation {
+
+    /**
+     * The value f(x) approaches as x grows
+     */
+    double amplitude = 1.7159;
+
+    /**
+     * The slope of tanh(originSlope * x) at the origin
+     */
+    double originSlope = 2/3.0;
+
+    /**
+     * Computes the activation with Math.tanh, to within one ulp of the exact value
+     */
+    Activation EXACT = new ScaledTanh();
+
+    /**
+     * Interpolates the activation from a lookup table, see TabulatedTanh for its error bound
+     */
+    Activation FAST = new TabulatedTanh();
+
+    /**
+     * @param input - the weighted sum of the node
+     * @return - the activation of the node
+     */
+    double apply(double input);
+
+    /**
+     * Activates a run of weighted sums in place: data[i] = f(data[i] + bias)
+     * @param data - the array holding the weighted sums
+     * @param start - the index of the first sum
+     * @param end - the index after the last sum
+     * @param bias - the bias added to every sum
+     */
+    default void apply(double[] data, int start, int end, double bias) {
+        for(int i = start; i < end; i++){
+            data[i] = apply(data[i] + bias);
+        }
+    }
+
+    /**
+     * The derivative of the activation function, computed from the activation itself:
+     * f'(x) = originSlope/amplitude * (amplitude^2 - f(x)^2)
+     * @param activation - the activation of the node, f(input)
+     * @return - the slope of the activation function at the node's input
+     */
+    default double derivative(double activation) {
+        return originSlope/amplitude * (amplitude*amplitude - activation*activation);
+    }
+
+    /**
+     * Turns the error gradients of a run of activations into the gradients of their weighted sums
+     * @param gradients - the array holding the gradients, multiplied in place
+     * @param gradientOffset - the index of the first gradient
+     * @param activations - the array holding the activations
+     * @param activationOffset - the index of the first activation
+     * @param length - the number of values
+     */
+    default void multiplyByDerivative(double[] gradients, int gradientOffset, double[] activations, int activationOffset, int length) {
+        double scale = originSlope/amplitude;
+        double squaredAmplitude = amplitude*amplitude;
+        for(int i = 0; i < length; i++){
+            double a = activations[activationOffset + i];
+            gradients[gradientOffset + i] *= scale * (squaredAmplitude - a*a);
+        }
+    }
+
+    /**
+     * Activates a run of single precision weighted sums in place: data[i] = f(data[i] + bias)
+     * @param data - the array holding the weighted sums
+     * @param start - the index of the first sum
+     * @param end - the index after the last sum
+     * @param bias - the bias added to every sum
+     */
+    default void apply(float[] data, int start, int end, float bias) {
+        for(int i = start; i < end; i++){
+            data[i] = (float)apply(data[i] + bias);
+        }
+    }
+
+    /**
+     * Turns the error gradients of a run of single precision activations into the gradients of their weighted sums
+     * @param gradients - the array holding the gradients, multiplied in place
+     * @param gradientOffset - the index of the first gradient
+     * @param activations - the array holding the activations
+     * @param activationOffset - the index of the first activation
+     * @param length - the number of values
+     */
+    default void multiplyByDerivative(float[] gradients, int gradientOffset, float[] activations, int activationOffset, int length) {
+        float scale = (float)(originSlope/amplitude);
+        float squaredAmplitude = (float)(amplitude*amplitude);
+        for(int i = 0; i < length; i++){
+            float a = activations[activationOffset + i];
+            gradients[gradientOffset + i] *= scale * (squaredAmplitude - a*a);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+import java.util.Random;
+
+/**
+ * Measures the largest difference between the fast and exact activation functions over the
+ * range the network uses, and times both one value at a time and a feature map at a time
+ */
+public class ActivationBenchmark {
+
+    private static final int mapSize = LeNet5.c1Size*LeNet5.c1Width*LeNet5.c1Height;
+    private static final int iterations = 20000;
+
+    /**
+     * Main method
+     * @param args - String[]
+     */
+    public static void main(String[] args){
+        double maxError = 0;
+        double worstInput = 0;
+        for(double x = -20; x <= 20; x += 1e-5){
+            double error = Math.abs(Activation.FAST.apply(x) - Activation.EXACT.apply(x));
+            if(error > maxError){
+                maxError = error;
+                worstInput = x;
+            }
+        }
+        System.out.printf("max |fast - exact| = %.3e at x = %.5f%n", maxError, worstInput);
+
+        Random random = new Random(313);
+        double[] sums = new double[mapSize];
+        for(int i = 0; i < sums.length; i++){
+            sums[i] = random.nextGaussian()*2;
+        }
+        double[] data = new double[mapSize];
+        System.out.printf("%-8s %16s %16s%n", "", "scalar (ns/val)", "array (ns/val)");
+        for(Activation activation : new Activation[]{Activation.EXACT, Activation.FAST}){
+            double scalar = 0;
+            double array = 0;
+            for(int round = 0; round < 2; round++){
+                long start = System.nanoTime();
+                for(int n = 0; n < iterations; n++){
+                    System.arraycopy(sums, 0, data, 0, mapSize);
+                    for(int i = 0; i < mapSize; i++){
+                        data[i] = activation.apply(data[i] + 0.1);
+                    }
+                }
+                scalar = (double)(System.nanoTime() - start)/iterations/mapSize;
+                start = System.nanoTime();
+                for(int n = 0; n < iterations; n++){
+                    System.arraycopy(sums, 0, data, 0, mapSize);
+                    activation.apply(data, 0, mapSize, 0.1);
+                }
+                array = (double)(System.nanoTime() - start)/iterations/mapSize;
+            }
+            System.out.printf("%-8s %16.2f %16.2f%n", activation == Activation.FAST ? "fast" : "exact", scalar, array);
+        }
+    }
+}
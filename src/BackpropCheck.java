@@ -0,0 +1,123 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+
+/**
+ * Checks the backward pass two ways and exits with status 1 if either fails:
+ *
+ * Gradients: for evenly spread weights of every parameter tensor, the gradient backward()
+ * accumulates into the workspace must match the central finite difference of the error to
+ * within a relative tolerance. The network uses Activation.EXACT here, since the tabulated
+ * activation's slope is only approximately its derivative.
+ *
+ * Allocation: once warmed up, training on a sample must not allocate. The bytes the thread
+ * has allocated, as reported by ThreadMXBean, must not grow over a run of training steps.
+ *
+ * Usage: BackpropCheck [weights checked per tensor] [tolerance]
+ */
+public class BackpropCheck {
+
+    /**
+     * Main method
+     * @param args - String[]
+     */
+    public static void main(String[] args){
+        int perTensor = args.length > 0 ? Integer.parseInt(args[0]) : 25;
+        double tolerance = args.length > 1 ? Double.parseDouble(args[1]) : 1e-4;
+        MnistDataset trainingSet;
+        try{
+            trainingSet = MnistDataset.loadTrainingSet();
+        }catch(IOException e){
+            System.err.println(e);
+            return;
+        }
+        boolean passed = checkGradients(trainingSet, perTensor, tolerance);
+        passed &= checkAllocation(trainingSet);
+        if(!passed){
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compares backpropagated gradients with central finite differences
+     * @return whether every checked gradient was within tolerance
+     */
+    private static boolean checkGradients(MnistDataset trainingSet, int perTensor, double tolerance){
+        LeNet5 net = new LeNet5();
+        net.initNetwork(trainingSet);
+        net.setActivation(Activation.EXACT);
+        MiniBatch sample = new MiniBatch(1, LeNet5.inputWidth, LeNet5.inputHeight, LeNet5.outputSize);
+        sample.add(trainingSet, new SplittableRandom(LeNet5.defaultWeightSeed).nextInt(trainingSet.size()));
+        Workspace ws = new Workspace();
+        Workspace probe = new Workspace();
+        net.computeGradients(ws, sample.image(0), sample.target(0));
+        double[] w = net.weights().data();
+        double[] g = ws.gradients().data();
+        double step = 1e-5;
+
+        String[] names = {"c1Filters", "c1Biases", "s2Weights", "s2Biases", "c3Filters", "c3Biases", "s4Weights",
+                "s4Biases", "c5Filters", "c5Weights", "c5Biases", "f6Weights", "f6Biases", "outputWeights"};
+        Tensor[] tensors = net.weights().tensors();
+        double worst = 0;
+        System.out.printf("%-14s %8s %16s%n", "tensor", "checked", "max rel. error");
+        for(int n = 0; n < tensors.length; n++){
+            int checked = Math.min(perTensor, tensors[n].size());
+            double tensorWorst = 0;
+            for(int k = 0; k < checked; k++){
+                int i = tensors[n].offset() + (int)((long)tensors[n].size()*k/checked);
+                double original = w[i];
+                w[i] = original + step;
+                double plus = net.computeGradients(probe, sample.image(0), sample.target(0));
+                w[i] = original - step;
+                double minus = net.computeGradients(probe, sample.image(0), sample.target(0));
+                w[i] = original;
+                double numerical = (plus - minus)/(2*step);
+                double error = Math.abs(numerical - g[i])/Math.max(1e-6, Math.abs(numerical) + Math.abs(g[i]));
+                tensorWorst = Math.max(tensorWorst, error);
+            }
+            System.out.printf("%-14s %8d %16.2e%n", names[n], checked, tensorWorst);
+            worst = Math.max(worst, tensorWorst);
+        }
+        if(worst > tolerance){
+            System.out.printf("FAILED: a gradient differs from its finite difference by %.2e, above %.0e%n", worst, tolerance);
+            return false;
+        }
+        System.out.printf("PASSED: every gradient is within %.0e of its finite difference%n", tolerance);
+        return true;
+    }
+
+    /**
+     * Measures the bytes the thread allocates while training on samples after a warm-up
+     * @return whether the training steps allocated nothing
+     */
+    private static boolean checkAllocation(MnistDataset trainingSet){
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(!(bean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported()){
+            System.out.println("SKIPPED: this JVM does not report per-thread allocation");
+            return true;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+        long thread = Thread.currentThread().getId();
+
+        LeNet5 net = new LeNet5();
+        net.initNetwork(trainingSet);
+        MiniBatch sample = new MiniBatch(1, LeNet5.inputWidth, LeNet5.inputHeight, LeNet5.outputSize);
+        sample.add(trainingSet, 0);
+        int steps = 2000;
+        for(int s = 0; s < 5*steps; s++){
+            net.trainIncrement(sample);
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        for(int s = 0; s < steps; s++){
+            net.trainIncrement(sample);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        if(allocated > 0){
+            System.out.printf("FAILED: %d training steps allocated %d bytes%n", steps, allocated);
+            return false;
+        }
+        System.out.printf("PASSED: %d training steps allocated nothing%n", steps);
+        return true;
+    }
+}
@@ -0,0 +1,176 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prepares mini-batches on background threads so the training loop never waits on data.
+ *
+ * Each loader thread owns a fixed pool of MiniBatch buffers and a bounded queue of filled
+ * batches. Loader w fills batches w, w + loaders, w + 2*loaders, ... of every epoch, so the
+ * trainer can take them back in order by cycling through the loaders' queues. When a loader's
+ * queue is full it blocks until the trainer releases a batch, which bounds the work done ahead
+ * of the trainer to prefetch batches per loader.
+ *
+ * The samples are reshuffled at the start of every epoch using a Random seeded from the
+ * pipeline seed and the epoch number, so a run is repeatable regardless of the number of loaders.
+ * The shuffle is computed once per epoch into one order shared by all loaders, each reading only
+ * its own batches' ranges of it. The loaders meet at a barrier before every epoch, and the last
+ * to arrive reshuffles the order, so none of them reads it while it changes.
+ */
+public class BatchPipeline implements AutoCloseable {
+
+    private final MnistDataset data;
+    private final int batchSize;
+    private final int epochs;
+    private final long seed;
+    private final int batchesPerEpoch;
+    private final Loader[] loaders;
+    private final int[] order;
+    private final CyclicBarrier epochStart;
+    private int shuffledEpochs = 0;
+    private int nextBatch = 0;
+    private volatile Throwable failure;
+
+    /**
+     * Starts the loader threads
+     * @param data - the data set to draw samples from
+     * @param batchSize - the number of samples in each batch (the last batch of an epoch may be smaller)
+     * @param loaderThreads - the number of background threads preparing batches
+     * @param prefetch - the number of filled batches each loader may hold ahead of the trainer
+     * @param epochs - the number of passes over the data set to produce
+     * @param seed - the seed the per-epoch shuffles are derived from
+     */
+    public BatchPipeline(MnistDataset data, int batchSize, int loaderThreads, int prefetch, int epochs, long seed) {
+        if(batchSize < 1 || loaderThreads < 1 || prefetch < 1){
+            throw new IllegalArgumentException("batchSize, loaderThreads and prefetch must all be positive");
+        }
+        this.data = data;
+        this.batchSize = batchSize;
+        this.epochs = epochs;
+        this.seed = seed;
+        this.batchesPerEpoch = (data.size() + batchSize - 1)/batchSize;
+        this.order = new int[data.size()];
+        this.loaders = new Loader[Math.min(loaderThreads, batchesPerEpoch)];
+        this.epochStart = new CyclicBarrier(loaders.length, () -> data.permutation(seed + shuffledEpochs++, order));
+        for(int w = 0; w < loaders.length; w++){
+            loaders[w] = new Loader(w, prefetch);
+        }
+        for(Loader loader : loaders){
+            loader.thread.start();
+        }
+    }
+
+    /**
+     * @return the number of batches that make up one pass over the data set
+     */
+    public int batchesPerEpoch() {
+        return batchesPerEpoch;
+    }
+
+    /**
+     * Waits for the next batch in order. Every batch taken must be given back with release()
+     * @return the next MiniBatch
+     * @throws IllegalStateException if all epochs have already been taken or a loader failed
+     */
+    public MiniBatch take() {
+        if(nextBatch >= batchesPerEpoch*epochs){
+            throw new IllegalStateException("All " + epochs + " epochs have already been taken");
+        }
+        Loader loader = loaders[(nextBatch % batchesPerEpoch) % loaders.length];
+        nextBatch++;
+        try{
+            MiniBatch batch;
+            while((batch = loader.filled.poll(100, TimeUnit.MILLISECONDS)) == null){
+                if(failure != null){
+                    throw new IllegalStateException("Batch loader failed", failure);
+                }
+            }
+            return batch;
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a batch", e);
+        }
+    }
+
+    /**
+     * Hands a batch back to the loader that filled it so its buffers can be reused
+     * @param batch - a batch returned by take()
+     */
+    public void release(MiniBatch batch) {
+        for(Loader loader : loaders){
+            if(loader.owns(batch)){
+                loader.free.offer(batch);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Batch was not produced by this pipeline");
+    }
+
+    /**
+     * Stops the loader threads
+     */
+    @Override
+    public void close() {
+        for(Loader loader : loaders){
+            loader.thread.interrupt();
+        }
+    }
+
+    /**
+     * One background thread filling its share of every epoch's batches
+     */
+    private class Loader implements Runnable {
+
+        private final int id;
+        private final MiniBatch[] pool;
+        private final BlockingQueue<MiniBatch> free;
+        private final BlockingQueue<MiniBatch> filled;
+        private final Thread thread;
+
+        Loader(int id, int prefetch) {
+            this.id = id;
+            this.pool = new MiniBatch[prefetch + 1];
+            this.free = new ArrayBlockingQueue<>(pool.length);
+            this.filled = new ArrayBlockingQueue<>(pool.length);
+            for(int i = 0; i < pool.length; i++){
+                pool[i] = new MiniBatch(batchSize, data.width(), data.height(), LeNet5.outputSize);
+                free.add(pool[i]);
+            }
+            this.thread = new Thread(this, "batch-loader-" + id);
+            this.thread.setDaemon(true);
+        }
+
+        boolean owns(MiniBatch batch) {
+            for(MiniBatch b : pool){
+                if(b == batch){
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void run() {
+            try{
+                for(int e = 0; e < epochs; e++){
+                    epochStart.await();
+                    for(int b = id; b < batchesPerEpoch; b += loaders.length){
+                        MiniBatch batch = free.take();
+                        batch.reset(e);
+                        int end = Math.min(data.size(), (b + 1)*batchSize);
+                        for(int i = b*batchSize; i < end; i++){
+                            batch.add(data, order[i]);
+                        }
+                        filled.put(batch);
+                    }
+                }
+            }catch(InterruptedException | BrokenBarrierException e){
+                //Pipeline closed
+            }catch(RuntimeException | Error e){
+                failure = e;
+            }
+        }
+    }
+}
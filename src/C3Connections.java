@@ -0,0 +1,79 @@
+/**
+ * Which of the 6 S2 maps feed each of the 16 C3 maps, following Table I of
+ * <a href="https://ieeexplore.ieee.org/stamp/stamp.jsp?tp=&arnumber=726791">
+ *     Gradient-Based Learning Applied to Document Recognition by Yann LeCun et al
+ * </a>
+ * <pre>
+ *   C3 map:  0 1 2 3 4 5 6 7 8 9 10 11 12 13 14 15
+ *   S2 map
+ *        0   X       X X X     X X  X  X     X  X
+ *        1   X X       X X X     X  X  X  X     X
+ *        2   X X X       X X X      X     X  X  X
+ *        3     X X X     X X X X       X     X  X
+ *        4       X X X     X X X X     X  X     X
+ *        5         X X X     X X X  X     X  X  X
+ * </pre>
+ * Every connection has its own 5x5 filter. The filters are numbered in table order, so C3 map f
+ * convolves S2 map inputs[f][k] with filter firstFilter[f] + k, which uses all 60 C3 filters once.
+ */
+final class C3Connections {
+
+    /**
+     * For each C3 map, the S2 maps it reads
+     */
+    static final int[][] inputs = {
+            {0, 1, 2}, {1, 2, 3}, {2, 3, 4}, {3, 4, 5}, {4, 5, 0}, {5, 0, 1},
+            {0, 1, 2, 3}, {1, 2, 3, 4}, {2, 3, 4, 5}, {3, 4, 5, 0}, {4, 5, 0, 1}, {5, 0, 1, 2},
+            {0, 1, 3, 4}, {1, 2, 4, 5}, {0, 2, 3, 5},
+            {0, 1, 2, 3, 4, 5}
+    };
+
+    /**
+     * For each C3 map, the index in c3Filters of the filter applied to inputs[f][0]
+     */
+    static final int[] firstFilter = new int[inputs.length];
+
+    /**
+     * For each S2 map, the C3 maps that read it
+     */
+    static final int[][] outputs = new int[LeNet5.s2Size][];
+
+    /**
+     * For each S2 map, the filter each of its outputs applies to it
+     */
+    static final int[][] outputFilters = new int[LeNet5.s2Size][];
+
+    /**
+     * The total number of connections, one filter each
+     */
+    static final int count;
+
+    static {
+        int[] fanOut = new int[LeNet5.s2Size];
+        int filter = 0;
+        for(int f = 0; f < inputs.length; f++){
+            firstFilter[f] = filter;
+            for(int s : inputs[f]){
+                fanOut[s]++;
+            }
+            filter += inputs[f].length;
+        }
+        count = filter;
+        for(int s = 0; s < LeNet5.s2Size; s++){
+            outputs[s] = new int[fanOut[s]];
+            outputFilters[s] = new int[fanOut[s]];
+            fanOut[s] = 0;
+        }
+        for(int f = 0; f < inputs.length; f++){
+            for(int k = 0; k < inputs[f].length; k++){
+                int s = inputs[f][k];
+                outputs[s][fanOut[s]] = f;
+                outputFilters[s][fanOut[s]] = firstFilter[f] + k;
+                fanOut[s]++;
+            }
+        }
+    }
+
+    private C3Connections() {
+    }
+}
@@ -0,0 +1,153 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Saves and loads the Weights of a trained network in a compact binary checkpoint file.
+ *
+ * The format is little-endian throughout. A 32-byte fixed header holds the magic number
+ * "LN5C", the format version, the element size in bytes, the number of parameter tensors,
+ * the total number of parameters, a CRC32 of everything after the fixed header, and the
+ * offset of the parameters. A table of every tensor's rank and dimensions follows, then
+ * padding to an 8-byte boundary, then every parameter as a double in the order Weights lays
+ * them out, so the payload is one contiguous block.
+ *
+ * Saving writes a temporary file next to the target, forces it to disk and moves it over the
+ * target, so a reader never sees a partly written checkpoint. Loading memory-maps the file,
+ * checks the header, shapes and checksum, and copies the payload into Weights in one bulk read.
+ */
+public class Checkpoint {
+
+    //'L' 'N' '5' 'C' read as a little-endian int
+    public static final int MAGIC = 0x43354E4C;
+    public static final int VERSION = 1;
+
+    private static final int FIXED_HEADER = 32;
+
+    private Checkpoint() {
+    }
+
+    /**
+     * Atomically writes the weights to the given file, replacing it if it exists
+     * @param weights - the weights to save
+     * @param filepath - String
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(Weights weights, String filepath) throws IOException {
+        Tensor[] tensors = weights.tensors();
+        int shapes = 0;
+        for(Tensor tensor : tensors){
+            shapes += 4 + 4*tensor.rank();
+        }
+        int payloadOffset = (FIXED_HEADER + shapes + 7)/8*8;
+        ByteBuffer file = ByteBuffer.allocate(payloadOffset + Double.BYTES*weights.size()).order(ByteOrder.LITTLE_ENDIAN);
+
+        file.putInt(MAGIC).putInt(VERSION).putInt(Double.BYTES).putInt(tensors.length);
+        file.putLong(weights.size()).putInt(0).putInt(payloadOffset);
+        for(Tensor tensor : tensors){
+            file.putInt(tensor.rank());
+            for(int d = 0; d < tensor.rank(); d++){
+                file.putInt(tensor.size(d));
+            }
+        }
+        file.position(payloadOffset);
+        file.asDoubleBuffer().put(weights.data());
+        file.putInt(24, checksum(file));
+        file.position(0);
+
+        Path target = Paths.get(filepath).toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try{
+            try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+                while(file.hasRemaining()){
+                    channel.write(file);
+                }
+                channel.force(true);
+            }
+            try{
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }catch(AtomicMoveNotSupportedException e){
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }finally{
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Memory-maps a checkpoint and reads it into a new set of weights
+     * @param filepath - String
+     * @return the weights
+     * @throws IOException if the file cannot be read, is not a checkpoint, does not match the
+     *                     shape of LeNet5 or fails its checksum
+     */
+    public static Weights load(String filepath) throws IOException {
+        Weights weights = new Weights();
+        Tensor[] tensors = weights.tensors();
+        try(FileChannel channel = FileChannel.open(Paths.get(filepath), StandardOpenOption.READ)){
+            long fileLength = channel.size();
+            if(fileLength < FIXED_HEADER){
+                throw new IOException(filepath + ": too short to be a checkpoint");
+            }
+            ByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLength).order(ByteOrder.LITTLE_ENDIAN);
+
+            if(file.getInt(0) != MAGIC){
+                throw new IOException(filepath + ": bad magic number 0x" + Integer.toHexString(file.getInt(0)));
+            }
+            if(file.getInt(4) != VERSION){
+                throw new IOException(filepath + ": unsupported checkpoint version " + file.getInt(4));
+            }
+            if(file.getInt(8) != Double.BYTES){
+                throw new IOException(filepath + ": unsupported element size " + file.getInt(8));
+            }
+            if(file.getInt(12) != tensors.length || file.getLong(16) != weights.size()){
+                throw new IOException(filepath + ": holds " + file.getInt(12) + " tensors of " + file.getLong(16)
+                        + " parameters but LeNet5 has " + tensors.length + " of " + weights.size());
+            }
+            int payloadOffset = file.getInt(28);
+            if(payloadOffset < FIXED_HEADER || payloadOffset % 8 != 0
+                    || payloadOffset + (long)Double.BYTES*weights.size() != fileLength){
+                throw new IOException(filepath + ": truncated or malformed payload");
+            }
+            if(file.getInt(24) != checksum(file)){
+                throw new IOException(filepath + ": checksum mismatch");
+            }
+
+            int position = FIXED_HEADER;
+            for(int t = 0; t < tensors.length; t++){
+                int rank = file.getInt(position);
+                boolean matches = rank == tensors[t].rank();
+                for(int d = 0; matches && d < rank; d++){
+                    matches = file.getInt(position + 4 + 4*d) == tensors[t].size(d);
+                }
+                if(!matches){
+                    throw new IOException(filepath + ": tensor " + t + " does not have the shape of " + tensors[t]);
+                }
+                position += 4 + 4*rank;
+            }
+
+            file.position(payloadOffset);
+            file.asDoubleBuffer().get(weights.data());
+        }
+        return weights;
+    }
+
+    /**
+     * @return the CRC32 of everything after the fixed header
+     */
+    private static int checksum(ByteBuffer file) {
+        CRC32 crc = new CRC32();
+        ByteBuffer body = file.duplicate();
+        body.position(FIXED_HEADER).limit(file.capacity());
+        crc.update(body);
+        return (int)crc.getValue();
+    }
+}
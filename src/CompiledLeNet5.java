@@ -0,0 +1,260 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * An immutable, inference-only copy of a trained LeNet5, made with LeNet5.compile(). Every
+ * affine step that is not followed by an activation function is folded into the layer after it:
+ *
+ * S2 and S4 compute mean * poolingWeight + poolingBias. The 1/4 of the mean and the pooling
+ * weight are folded into the C3 filters and the S4 scales below, and the pooling bias, times
+ * the sum of each filter reading the map, into the C3 and C5 biases, so subsampling is a plain
+ * sum of each 2x2 block.
+ *
+ * Every C5 filter is applied to all 16 S4 maps and the results summed, so C5 only ever sees the
+ * S4 maps through their sum. That sum, weighted by the S4 scales, is collected while C3 is
+ * computed, and each C5 unit is one 25 element dot product with its filter, which has c5Weights
+ * folded in.
+ *
+ * F6 and the output layer have no activation function between them, so they are multiplied
+ * into a single 10x120 matrix and bias.
+ *
+ * The result computes the same outputs as the network it was compiled from up to rounding,
+ * holds no gradients or training state, and stores every filter contiguously in the order the
+ * kernels read it. Any number of threads can classify images with one model at once. The
+ * buffers a thread classifies in are its own and shared by every model, so a model holds
+ * nothing but its weights and compiling a new one allocates no per-thread state.
+ */
+public final class CompiledLeNet5 {
+
+    private static final int taps = LeNet5.filterWidth*LeNet5.filterHeight;
+    private static final int paddedWidth = LeNet5.c1Height + LeNet5.filterHeight - 1;
+    private static final int s2MapSize = LeNet5.s2Width*LeNet5.s2Height;
+
+    //The folded layers, read by QuantizedLeNet5 and never written after construction
+    final Activation activation;
+    private final Kernels kernels;
+    final double[] c1Filters;
+    final double[] c1Biases;
+    final double[] c3Filters;
+    final double[] c3Biases;
+    final double[] s4Scales;
+    final double[] c5Filters;
+    final double[] c5Biases;
+    final double[] outputWeights;
+    final double[] outputBiases;
+
+    //Every model has the same shape, so each thread keeps one scratch space for all of them
+    private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * The buffers one thread needs to classify an image
+     */
+    static final class Scratch {
+        //Only the middle 28x28 of padded is ever written, so its border stays zero
+        final double[] padded = new double[paddedWidth*paddedWidth];
+        final double[] strip = new double[2*LeNet5.c1Height];
+        final double[] s2Sums = new double[LeNet5.s2Size*s2MapSize];
+        final double[] row = new double[LeNet5.c3Height];
+        final double[] s4Sum = new double[taps];
+        final double[] c5 = new double[LeNet5.c5Size];
+        final double[] output = new double[LeNet5.outputSize];
+    }
+
+    /**
+     * Folds the weights of a trained network
+     * @param weights - the trained weights, which are only read
+     * @param activation - the activation function the network was trained with
+     */
+    CompiledLeNet5(Weights weights, Activation activation) {
+        this.activation = activation;
+        this.kernels = Kernels.SELECTED;
+        this.c1Filters = weights.c1Filters.toArray();
+        this.c1Biases = weights.c1Biases.toArray();
+
+        //C3: filter k of map f reads S2 map s = inputs[f][k], and s2 = (sum/4) * s2Weights[s] + s2Biases[s]
+        this.c3Filters = weights.c3Filters.toArray();
+        this.c3Biases = weights.c3Biases.toArray();
+        for(int f = 0; f < LeNet5.c3Size; f++){
+            int[] inputs = C3Connections.inputs[f];
+            for(int k = 0; k < inputs.length; k++){
+                int filter = (C3Connections.firstFilter[f] + k)*taps;
+                double scale = weights.s2Weights.get(inputs[k])/4;
+                double filterSum = 0;
+                for(int t = 0; t < taps; t++){
+                    filterSum += c3Filters[filter + t];
+                    c3Filters[filter + t] *= scale;
+                }
+                c3Biases[f] += weights.s2Biases.get(inputs[k]) * filterSum;
+            }
+        }
+
+        //S4: s4 = (sum/4) * s4Weights[s] + s4Biases[s], and C5 only reads the S4 maps summed
+        this.s4Scales = new double[LeNet5.s4Size];
+        double s4BiasSum = 0;
+        for(int s = 0; s < LeNet5.s4Size; s++){
+            s4Scales[s] = weights.s4Weights.get(s)/4;
+            s4BiasSum += weights.s4Biases.get(s);
+        }
+
+        //C5: c5 = f(c5Weights[f] * (filter . summed S4) + c5Biases[f])
+        this.c5Filters = weights.c5Filters.toArray();
+        this.c5Biases = new double[LeNet5.c5Size];
+        for(int f = 0; f < LeNet5.c5Size; f++){
+            double scale = weights.c5Weights.get(f);
+            double filterSum = 0;
+            for(int t = 0; t < taps; t++){
+                filterSum += c5Filters[f*taps + t];
+                c5Filters[f*taps + t] *= scale;
+            }
+            c5Biases[f] = scale * s4BiasSum * filterSum + weights.c5Biases.get(f);
+        }
+
+        //F6 and Output: output = outputWeights (f6Weights c5 + f6Biases)
+        this.outputWeights = new double[LeNet5.outputSize*LeNet5.c5Size];
+        this.outputBiases = new double[LeNet5.outputSize];
+        for(int o = 0; o < LeNet5.outputSize; o++){
+            for(int h = 0; h < LeNet5.f6Size; h++){
+                double w = weights.outputWeights.get(o, h);
+                outputBiases[o] += w * weights.f6Biases.get(h);
+                for(int n = 0; n < LeNet5.c5Size; n++){
+                    outputWeights[o*LeNet5.c5Size + n] += w * weights.f6Weights.get(h, n);
+                }
+            }
+        }
+    }
+
+    /**
+     * Classifies a single image. Safe to call from any number of threads at once
+     * @param image - the normalized 28x28 image
+     * @return - the digit the network recognizes in the image
+     */
+    public int predict(Tensor image){
+        double[] output = forward(scratch.get(), image);
+        int best = 0;
+        for(int o = 1; o < output.length; o++){
+            if(output[o] > output[best]){
+                best = o;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Classifies every image in a data set, splitting the images across all available cores
+     * @param images - the images to classify
+     * @return - the digit recognized in each image, in data set order
+     */
+    public int[] predictBatch(MnistDataset images){
+        int[] predictions = new int[images.size()];
+        int chunks = Math.min(images.size(), 4*Runtime.getRuntime().availableProcessors());
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            Tensor image = new Tensor(LeNet5.inputWidth, LeNet5.inputHeight);
+            int end = (int)((long)images.size()*(c+1)/chunks);
+            for(int i = (int)((long)images.size()*c/chunks); i < end; i++){
+                images.copyImage(i, image);
+                predictions[i] = predict(image);
+            }
+        });
+        return predictions;
+    }
+
+    /**
+     * Classifies every image in a labelled data set and measures how well and how fast it did,
+     * the same way as LeNet5.testNetworkImages()
+     * @param images - the labelled images to classify
+     * @return - the confusion matrix, throughput and per-image latencies
+     */
+    public Evaluation testNetworkImages(MnistDataset images){
+        long start = System.nanoTime();
+        int chunks = Math.min(images.size(), 4*Runtime.getRuntime().availableProcessors());
+        Evaluation evaluation = IntStream.range(0, chunks).parallel().mapToObj(c -> {
+            Evaluation partial = new Evaluation();
+            Tensor image = new Tensor(LeNet5.inputWidth, LeNet5.inputHeight);
+            int end = (int)((long)images.size()*(c+1)/chunks);
+            for(int i = (int)((long)images.size()*c/chunks); i < end; i++){
+                long imageStart = System.nanoTime();
+                images.copyImage(i, image);
+                partial.record(images.label(i), predict(image), System.nanoTime() - imageStart);
+            }
+            return partial;
+        }).collect(Evaluation::new, Evaluation::merge, Evaluation::merge);
+        evaluation.setElapsed(System.nanoTime() - start);
+        return evaluation;
+    }
+
+    /**
+     * @return the number of parameters the model stores
+     */
+    public int parameterCount(){
+        return c1Filters.length + c1Biases.length + c3Filters.length + c3Biases.length + s4Scales.length
+                + c5Filters.length + c5Biases.length + outputWeights.length + outputBiases.length;
+    }
+
+    /**
+     * Feeds an image through the folded layers
+     * @return the activations of the output layer, a buffer in the scratch space
+     */
+    double[] forward(Scratch s, Tensor image){
+        double[] padded = s.padded;
+        int border = (LeNet5.filterWidth - 1)/2;
+        for(int i = 0; i < LeNet5.inputWidth; i++){
+            System.arraycopy(image.data(), image.offset(i), padded, (i + border)*paddedWidth + border, LeNet5.inputHeight);
+        }
+
+        //C1 and S2, two C1 rows per S2 row
+        double[] strip = s.strip;
+        int width = LeNet5.c1Height;
+        for(int f = 0; f < LeNet5.c1Size; f++){
+            for(int i = 0; i < LeNet5.s2Width; i++){
+                kernels.convolveRow(padded, 2*i*paddedWidth, paddedWidth, c1Filters, f*taps, strip, 0, width);
+                kernels.convolveRow(padded, (2*i + 1)*paddedWidth, paddedWidth, c1Filters, f*taps, strip, width, width);
+                activation.apply(strip, 0, 2*width, c1Biases[f]);
+                int out = f*s2MapSize + i*LeNet5.s2Height;
+                for(int j = 0; j < LeNet5.s2Height; j++){
+                    s.s2Sums[out + j] = strip[2*j] + strip[2*j + 1] + strip[width + 2*j] + strip[width + 2*j + 1];
+                }
+            }
+        }
+
+        //C3 and S4, with every S4 map summed into s4Sum as it is produced
+        double[] s4Sum = s.s4Sum;
+        Arrays.fill(s4Sum, 0);
+        width = LeNet5.c3Height;
+        for(int f = 0; f < LeNet5.c3Size; f++){
+            int[] inputs = C3Connections.inputs[f];
+            int firstFilter = C3Connections.firstFilter[f];
+            for(int i = 0; i < LeNet5.s4Width; i++){
+                for(int r = 0; r < 2; r++){
+                    int start = (2*i + r)*LeNet5.s2Height;
+                    kernels.convolveRow(s.s2Sums, inputs[0]*s2MapSize + start, LeNet5.s2Height,
+                            c3Filters, firstFilter*taps, strip, r*width, width);
+                    for(int k = 1; k < inputs.length; k++){
+                        kernels.convolveRow(s.s2Sums, inputs[k]*s2MapSize + start, LeNet5.s2Height,
+                                c3Filters, (firstFilter + k)*taps, s.row, 0, width);
+                        for(int j = 0; j < width; j++){
+                            strip[r*width + j] += s.row[j];
+                        }
+                    }
+                }
+                activation.apply(strip, 0, 2*width, c3Biases[f]);
+                for(int j = 0; j < LeNet5.s4Height; j++){
+                    double sum = strip[2*j] + strip[2*j + 1] + strip[width + 2*j] + strip[width + 2*j + 1];
+                    s4Sum[i*LeNet5.s4Height + j] += s4Scales[f] * sum;
+                }
+            }
+        }
+
+        //C5
+        double[] c5 = s.c5;
+        for(int f = 0; f < LeNet5.c5Size; f++){
+            c5[f] = activation.apply(kernels.dot(s4Sum, 0, c5Filters, f*taps, taps) + c5Biases[f]);
+        }
+
+        //F6 and Output
+        double[] output = s.output;
+        for(int o = 0; o < LeNet5.outputSize; o++){
+            output[o] = kernels.dot(c5, 0, outputWeights, o*LeNet5.c5Size, LeNet5.c5Size) + outputBiases[o];
+        }
+        return output;
+    }
+}
@@ -0,0 +1,77 @@
+import java.io.IOException;
+
+/**
+ * Compiles a trained LeNet5 into a CompiledLeNet5 and compares the two on the test set: how
+ * often their predictions agree, their accuracy, the time one thread takes per image, the
+ * throughput across every core and the number of parameters each stores.
+ *
+ * Usage: CompiledModelComparison [checkpoint]  (without a checkpoint a network is trained for one epoch)
+ */
+public class CompiledModelComparison {
+
+    /**
+     * Main method
+     * @param args - String[]
+     */
+    public static void main(String[] args){
+        MnistDataset testSet;
+        LeNet5 net = new LeNet5();
+        try{
+            testSet = MnistDataset.loadTestSet();
+            if(args.length > 0){
+                net.loadCheckpoint(args[0]);
+            }else{
+                net.initNetwork(MnistDataset.loadTrainingSet());
+                net.trainNetwork(1);
+            }
+        }catch(IOException e){
+            System.err.println(e);
+            return;
+        }
+        CompiledLeNet5 compiled = net.compile();
+
+        //Warm both models up before timing them
+        for(int r = 0; r < 3; r++){
+            net.predictBatch(testSet);
+            compiled.predictBatch(testSet);
+        }
+
+        Tensor image = new Tensor(LeNet5.inputWidth, LeNet5.inputHeight);
+        int[] networkPredictions = new int[testSet.size()];
+        int[] compiledPredictions = new int[testSet.size()];
+        long networkNanos = 0;
+        long compiledNanos = 0;
+        for(int i = 0; i < testSet.size(); i++){
+            testSet.copyImage(i, image);
+            long start = System.nanoTime();
+            networkPredictions[i] = net.predict(image);
+            long middle = System.nanoTime();
+            compiledPredictions[i] = compiled.predict(image);
+            compiledNanos += System.nanoTime() - middle;
+            networkNanos += middle - start;
+        }
+
+        long start = System.nanoTime();
+        net.predictBatch(testSet);
+        double networkBatch = (System.nanoTime() - start)/1e9;
+        start = System.nanoTime();
+        compiled.predictBatch(testSet);
+        double compiledBatch = (System.nanoTime() - start)/1e9;
+
+        int networkCorrect = 0;
+        int compiledCorrect = 0;
+        int agree = 0;
+        for(int i = 0; i < testSet.size(); i++){
+            if(networkPredictions[i] == testSet.label(i)) networkCorrect++;
+            if(compiledPredictions[i] == testSet.label(i)) compiledCorrect++;
+            if(networkPredictions[i] == compiledPredictions[i]) agree++;
+        }
+
+        System.out.printf("%-10s %10s %14s %16s %12s%n", "model", "accuracy", "latency (us)", "images/sec", "parameters");
+        System.out.printf("%-10s %9.2f%% %14.2f %16.0f %12d%n", "LeNet5", 100.0*networkCorrect/testSet.size(),
+                networkNanos/1e3/testSet.size(), testSet.size()/networkBatch, net.weights().size());
+        System.out.printf("%-10s %9.2f%% %14.2f %16.0f %12d%n", "compiled", 100.0*compiledCorrect/testSet.size(),
+                compiledNanos/1e3/testSet.size(), testSet.size()/compiledBatch, compiled.parameterCount());
+        System.out.printf("Predictions agree on %d of %d images%n", agree, testSet.size());
+    }
+}
@@ -0,0 +1,148 @@
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Times the C1, C3 and C5 layers of each convolution engine on random weights and inputs,
+ * including the direct engine with scalar kernels against Kernels.SELECTED, and checks that every engine computes the same activations as the direct engine. Then times
+ * the direct engine's fused convolution and subsampling kernels against separate passes
+ */
+public class ConvolutionBenchmark {
+
+    private static final int warmup = 2000;
+    private static final int iterations = 5000;
+
+    /**
+     * Main method
+     * @param args - String[]
+     */
+    public static void main(String[] args){
+        Random random = new Random(313);
+        Weights weights = new Weights();
+        for(int i = 0; i < weights.size(); i++){
+            weights.data()[i] = random.nextDouble() - 0.5;
+        }
+        //The direct engine with scalar kernels is the baseline for the direct engine with Kernels.SELECTED
+        ConvolutionEngine[] engines = {new DirectConvolution(new ScalarKernels()), ConvolutionEngine.DIRECT, new Im2colConvolution()};
+        String[] names = {"direct x1", "direct x" + Kernels.SELECTED.lanes(), "im2col+gemm"};
+        Workspace[] workspaces = new Workspace[engines.length];
+        for(int e = 0; e < engines.length; e++){
+            workspaces[e] = randomInputs(new Random(7));
+        }
+
+        System.out.println("Kernels: " + Kernels.SELECTED.name());
+        System.out.printf("%-12s %12s %12s %12s%n", "engine", "C1 (us)", "C3 (us)", "C5 (us)");
+        double[] baseline = null;
+        for(int e = 0; e < engines.length; e++){
+            double[] times = time(engines[e], weights, workspaces[e]);
+            System.out.printf("%-12s %12.2f %12.2f %12.2f", names[e], times[0], times[1], times[2]);
+            if(baseline == null){
+                baseline = times;
+                System.out.println();
+            }else{
+                System.out.printf("   speedup %.1fx / %.1fx / %.1fx, max difference %.2e%n",
+                        baseline[0]/times[0], baseline[1]/times[1], baseline[2]/times[2],
+                        maxDifference(workspaces[0], workspaces[e]));
+            }
+        }
+
+        //Convolution followed by a separate pooling pass against the fused kernels, without keeping C1 and C3
+        Workspace separate = randomInputs(new Random(7));
+        Workspace fused = randomInputs(new Random(7));
+        ConvolutionEngine engine = ConvolutionEngine.DIRECT;
+        double[] separateTimes = timePairs(ws -> {
+            engine.convolveC1(weights, Activation.FAST, ws);
+            LeNet5.pool(ws.c1, weights.s2Weights, weights.s2Biases, 2, 2, 2, ws.s2Means, ws.s2);
+        }, ws -> {
+            engine.convolveC3(weights, Activation.FAST, ws);
+            LeNet5.pool(ws.c3, weights.s4Weights, weights.s4Biases, 2, 2, 2, ws.s4Means, ws.s4);
+        }, separate);
+        double[] fusedTimes = timePairs(ws -> engine.convolvePoolC1(weights, Activation.FAST, ws, false),
+                ws -> engine.convolvePoolC3(weights, Activation.FAST, ws, false), fused);
+        System.out.printf("%n%-12s %12s %12s%n", "direct", "C1+S2 (us)", "C3+S4 (us)");
+        System.out.printf("%-12s %12.2f %12.2f%n", "separate", separateTimes[0], separateTimes[1]);
+        System.out.printf("%-12s %12.2f %12.2f   speedup %.1fx / %.1fx, max difference %.2e%n", "fused",
+                fusedTimes[0], fusedTimes[1], separateTimes[0]/fusedTimes[0], separateTimes[1]/fusedTimes[1],
+                Math.max(maxDifference(separate.s2, fused.s2), maxDifference(separate.s4, fused.s4)));
+    }
+
+    /**
+     * @return the mean microseconds per call of the C1+S2 and C3+S4 layer pairs
+     */
+    private static double[] timePairs(Consumer<Workspace> c1s2, Consumer<Workspace> c3s4, Workspace ws){
+        for(int i = 0; i < warmup; i++){
+            c1s2.accept(ws);
+            c3s4.accept(ws);
+        }
+        double[] times = new double[2];
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; i++){
+            c1s2.accept(ws);
+        }
+        times[0] = (System.nanoTime() - start)/1e3/iterations;
+        start = System.nanoTime();
+        for(int i = 0; i < iterations; i++){
+            c3s4.accept(ws);
+        }
+        times[1] = (System.nanoTime() - start)/1e3/iterations;
+        return times;
+    }
+
+    /**
+     * @return the mean microseconds per call of C1, C3 and C5
+     */
+    private static double[] time(ConvolutionEngine engine, Weights weights, Workspace ws){
+        for(int i = 0; i < warmup; i++){
+            engine.convolveC1(weights, Activation.FAST, ws);
+            engine.convolveC3(weights, Activation.FAST, ws);
+            engine.convolveC5(weights, Activation.FAST, ws);
+        }
+        double[] times = new double[3];
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; i++){
+            engine.convolveC1(weights, Activation.FAST, ws);
+        }
+        times[0] = (System.nanoTime() - start)/1e3/iterations;
+        start = System.nanoTime();
+        for(int i = 0; i < iterations; i++){
+            engine.convolveC3(weights, Activation.FAST, ws);
+        }
+        times[1] = (System.nanoTime() - start)/1e3/iterations;
+        start = System.nanoTime();
+        for(int i = 0; i < iterations; i++){
+            engine.convolveC5(weights, Activation.FAST, ws);
+        }
+        times[2] = (System.nanoTime() - start)/1e3/iterations;
+        return times;
+    }
+
+    /**
+     * @return a workspace with a random padded input and random S2 and S4 maps
+     */
+    private static Workspace randomInputs(Random random){
+        Workspace ws = new Workspace();
+        for(int i = 2; i < ws.padded.size(1) - 2; i++){
+            for(int j = 2; j < ws.padded.size(2) - 2; j++){
+                ws.padded.set(0, i, j, random.nextDouble());
+            }
+        }
+        for(int i = 0; i < ws.s2.size(); i++){
+            ws.s2.set(i, random.nextDouble() - 0.5);
+        }
+        for(int i = 0; i < ws.s4.size(); i++){
+            ws.s4.set(i, random.nextDouble() - 0.5);
+        }
+        return ws;
+    }
+
+    private static double maxDifference(Workspace a, Workspace b){
+        return Math.max(maxDifference(a.c1, b.c1), Math.max(maxDifference(a.c3, b.c3), maxDifference(a.c5Sums, b.c5Sums)));
+    }
+
+    private static double maxDifference(Tensor a, Tensor b){
+        double max = 0;
+        for(int i = 0; i < a.size(); i++){
+            max = Math.max(max, Math.abs(a.get(i) - b.get(i)));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Computes the convolution layers of LeNet5. Each method reads its input from the workspace
+ * and writes the activations of its layer back into the workspace, biases and activation
+ * function included. Engines hold no per-call state, so one engine can be shared by every
+ * thread as long as each thread has its own Workspace.
+ */
+public interface ConvolutionEngine {
+
+    /**
+     * The original engine, sliding each 5x5 filter over its input one output pixel at a time
+     */
+    ConvolutionEngine DIRECT = new DirectConvolution();
+
+    /**
+     * C1: convolves the padded 32x32 input in ws.padded with the 6 C1 filters, writing ws.c1
+     * @param weights - the network's weights
+     * @param activation - the activation function applied to the sums
+     * @param ws - the workspace
+     */
+    void convolveC1(Weights weights, Activation activation, Workspace ws);
+
+    /**
+     * C3: convolves the 6 S2 maps in ws.s2 with the filters of their C3Connections, writing ws.c3
+     * @param weights - the network's weights
+     * @param activation - the activation function applied to the sums
+     * @param ws - the workspace
+     */
+    void convolveC3(Weights weights, Activation activation, Workspace ws);
+
+    /**
+     * C5: convolves the 16 S4 maps in ws.s4 with each of the 120 C5 filters, writing the raw sums
+     * to ws.c5Sums and the activations, after scaling by c5Weights, to ws.c5
+     * @param weights - the network's weights
+     * @param activation - the activation function applied to the sums
+     * @param ws - the workspace
+     */
+    void convolveC5(Weights weights, Activation activation, Workspace ws);
+
+    /**
+     * C1 and S2 together: convolves ws.padded and subsamples the activations into ws.s2Means and ws.s2.
+     * Engines that can should reduce each 2x2 block of C1 into S2 as soon as it is computed, so the
+     * full resolution layer never has to be written out and read back
+     * @param weights - the network's weights
+     * @param activation - the activation function applied to the sums
+     * @param ws - the workspace
+     * @param keepActivations - whether ws.c1 must also be written, as the backward pass and observers need it
+     */
+    default void convolvePoolC1(Weights weights, Activation activation, Workspace ws, boolean keepActivations) {
+        convolveC1(weights, activation, ws);
+        LeNet5.pool(ws.c1, weights.s2Weights, weights.s2Biases, 2, 2, 2, ws.s2Means, ws.s2);
+    }
+
+    /**
+     * C3 and S4 together: convolves ws.s2 and subsamples the activations into ws.s4Means and ws.s4
+     * @param weights - the network's weights
+     * @param activation - the activation function applied to the sums
+     * @param ws - the workspace
+     * @param keepActivations - whether ws.c3 must also be written, as the backward pass and observers need it
+     */
+    default void convolvePoolC3(Weights weights, Activation activation, Workspace ws, boolean keepActivations) {
+        convolveC3(weights, activation, ws);
+        LeNet5.pool(ws.c3, weights.s4Weights, weights.s4Biases, 2, 2, 2, ws.s4Means, ws.s4);
+    }
+
+    /**
+     * Adds each map's bias to the weighted sums of a convolution layer and applies the activation function
+     * @param maps - the weighted sums, replaced by the activations
+     * @param biases - one trainable bias per map
+     * @param activation - the activation function
+     */
+    static void activate(Tensor maps, Tensor biases, Activation activation) {
+        for(int m = 0; m < maps.size(0); m++){
+            int start = maps.offset(m);
+            activation.apply(maps.data(), start, start + maps.stride(0), biases.get(m));
+        }
+    }
+}
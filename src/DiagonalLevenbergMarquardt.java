@@ -0,0 +1,59 @@
+/**
+ * The stochastic diagonal Levenberg-Marquardt method of Appendix C of
+ * <a href="https://ieeexplore.ieee.org/stamp/stamp.jsp?tp=&arnumber=726791">
+ *     Gradient-Based Learning Applied to Document Recognition by Yann LeCun et al
+ * </a>
+ * Every weight gets its own step size, the learning rate divided by mu plus an estimate of the
+ * second derivative of the error with respect to that weight. Weights the error is very curved
+ * in take small steps and flat ones take large steps, so one global learning rate suits every
+ * layer. The second derivatives are the Gauss-Newton approximation of the diagonal of the
+ * Hessian, averaged over a random subset of the training set before every epoch.
+ *
+ * The per-weight steps are much larger than a plain gradient descent step with the same
+ * learning rate, so learning rates around a hundredth of gradient descent's are appropriate.
+ */
+public class DiagonalLevenbergMarquardt implements Optimizer {
+
+    private final double mu;
+    private final int samples;
+    private final Weights curvature = new Weights();
+
+    /**
+     * Uses mu = 0.02 and 500 samples, as in the paper
+     */
+    public DiagonalLevenbergMarquardt() {
+        this(0.02, 500);
+    }
+
+    /**
+     * @param mu - added to every second derivative, which bounds the step of weights the error is flat in
+     * @param samples - the number of training samples the second derivatives are averaged over
+     */
+    public DiagonalLevenbergMarquardt(double mu, int samples) {
+        if(mu <= 0 || samples < 1){
+            throw new IllegalArgumentException("mu and samples must be positive");
+        }
+        this.mu = mu;
+        this.samples = samples;
+    }
+
+    @Override
+    public void epochStarted(LeNet5 network) {
+        network.estimateCurvature(curvature, samples);
+    }
+
+    @Override
+    public void update(double[] weights, double[] gradients, int start, int end, double step) {
+        double[] h = curvature.data();
+        for(int i = start; i < end; i++){
+            weights[i] -= step / (mu + h[i]) * gradients[i];
+        }
+    }
+
+    /**
+     * @return the second derivatives estimated before the current epoch
+     */
+    public Weights curvature() {
+        return curvature;
+    }
+}
@@ -0,0 +1,214 @@
+import java.util.Arrays;
+
+/**
+ * Computes the convolution layers a row of output pixels at a time with Kernels.convolveRow,
+ * adding the bias and applying the activation function to each row as soon as it is summed,
+ * while it is still in cache.
+ *
+ * C3 is computed one output position at a time: each 5x5 window of an S2 map is read once and
+ * accumulated into every C3 map connected to that S2 map, following C3Connections. Once a row
+ * of positions is summed, that row of every map is activated.
+ *
+ * The fused C1+S2 and C3+S4 kernels walk the subsampled maps a row at a time instead: the two
+ * convolution rows under each subsampled row are computed into a small strip that stays in cache,
+ * activated, and averaged straight into the subsampled row.
+ */
+public class DirectConvolution implements ConvolutionEngine {
+
+    private final Kernels kernels;
+
+    /**
+     * Creates an engine using Kernels.SELECTED
+     */
+    public DirectConvolution() {
+        this(Kernels.SELECTED);
+    }
+
+    /**
+     * @param kernels - the kernels the convolutions are computed with
+     */
+    public DirectConvolution(Kernels kernels) {
+        this.kernels = kernels;
+    }
+
+    @Override
+    public void convolveC1(Weights weights, Activation activation, Workspace ws) {
+        Tensor c1 = ws.c1;
+        for(int f = 0; f < LeNet5.c1Size; f++){
+            double bias = weights.c1Biases.get(f);
+            for(int i = 0; i < LeNet5.c1Width; i++){
+                int row = c1.offset(f, i, 0);
+                convolveC1Row(weights, ws, f, i, c1.data(), row);
+                activation.apply(c1.data(), row, row + LeNet5.c1Height, bias);
+            }
+        }
+    }
+
+    @Override
+    public void convolveC3(Weights weights, Activation activation, Workspace ws) {
+        Tensor c3 = ws.c3;
+        for(int i = 0; i < LeNet5.c3Width; i++){
+            for(int j = 0; j < LeNet5.c3Height; j++){
+                sumC3(weights, ws, i, j);
+                for(int f = 0; f < LeNet5.c3Size; f++){
+                    c3.set(f, i, j, ws.c3Sums[f]);
+                }
+            }
+            for(int f = 0; f < LeNet5.c3Size; f++){
+                int row = c3.offset(f, i, 0);
+                activation.apply(c3.data(), row, row + LeNet5.c3Height, weights.c3Biases.get(f));
+            }
+        }
+    }
+
+    @Override
+    public void convolvePoolC1(Weights weights, Activation activation, Workspace ws, boolean keepActivations) {
+        double[] strip = ws.strip;
+        int width = LeNet5.c1Height;
+        for(int f = 0; f < LeNet5.c1Size; f++){
+            double poolingWeight = weights.s2Weights.get(f);
+            double poolingBias = weights.s2Biases.get(f);
+            for(int i = 0; i < LeNet5.s2Width; i++){
+                //Compute and activate the two rows of C1 under this row of S2
+                convolveC1Row(weights, ws, f, 2*i, strip, 0);
+                convolveC1Row(weights, ws, f, 2*i + 1, strip, width);
+                activation.apply(strip, 0, 2*width, weights.c1Biases.get(f));
+                if(keepActivations){
+                    System.arraycopy(strip, 0, ws.c1.data(), ws.c1.offset(f, 2*i, 0), 2*width);
+                }
+                pool(strip, 0, width, poolingWeight, poolingBias, ws.s2Means, ws.s2, f, i);
+            }
+        }
+    }
+
+    @Override
+    public void convolvePoolC3(Weights weights, Activation activation, Workspace ws, boolean keepActivations) {
+        double[] strip = ws.strip;
+        int width = LeNet5.c3Height;
+        for(int i = 0; i < LeNet5.s4Width; i++){
+            //Compute the two rows of every C3 map under this row of S4
+            for(int r = 0; r < 2; r++){
+                for(int j = 0; j < width; j++){
+                    sumC3(weights, ws, 2*i + r, j);
+                    for(int f = 0; f < LeNet5.c3Size; f++){
+                        strip[(2*f + r)*width + j] = ws.c3Sums[f];
+                    }
+                }
+            }
+            for(int f = 0; f < LeNet5.c3Size; f++){
+                int start = 2*f*width;
+                activation.apply(strip, start, start + 2*width, weights.c3Biases.get(f));
+                if(keepActivations){
+                    System.arraycopy(strip, start, ws.c3.data(), ws.c3.offset(f, 2*i, 0), 2*width);
+                }
+                pool(strip, start, width, weights.s4Weights.get(f), weights.s4Biases.get(f), ws.s4Means, ws.s4, f, i);
+            }
+        }
+    }
+
+    /**
+     * Writes row i of C1 map f, before its bias and activation, to output starting at outputOffset
+     */
+    private void convolveC1Row(Weights weights, Workspace ws, int f, int i, double[] output, int outputOffset) {
+        Tensor padded = ws.padded;
+        kernels.convolveRow(padded.data(), padded.offset(0, i, 0), padded.stride(1),
+                weights.c1Filters.data(), weights.c1Filters.offset(f), output, outputOffset, LeNet5.c1Height);
+    }
+
+    /**
+     * Averages each 2x2 block of two activated rows into one row of a subsampling layer
+     * @param strip - the array holding the two rows, one after the other
+     * @param start - the index in strip of the first row
+     * @param width - the length of each row
+     * @param poolingWeight - the trainable weight the averages are multiplied by
+     * @param poolingBias - the trainable bias added to the multiplied averages
+     * @param means - the averages, kept for the backward pass
+     * @param output - the subsampling layer
+     * @param m - the map of the subsampling layer
+     * @param i - the row of the subsampling layer
+     */
+    private static void pool(double[] strip, int start, int width, double poolingWeight, double poolingBias,
+                             Tensor means, Tensor output, int m, int i) {
+        for(int j = 0; j < width/2; j++){
+            int p = start + 2*j;
+            double mean = (strip[p] + strip[p + 1] + strip[p + width] + strip[p + width + 1])/4;
+            means.set(m, i, j, mean);
+            output.set(m, i, j, mean * poolingWeight + poolingBias);
+        }
+    }
+
+    @Override
+    public void convolveC5(Weights weights, Activation activation, Workspace ws) {
+        //An S4 map is exactly one 5x5 window, so each filter is a dot product with every map
+        double[] s4 = ws.s4.data();
+        double[] filters = weights.c5Filters.data();
+        int taps = LeNet5.filterWidth*LeNet5.filterHeight;
+        for(int f = 0; f < LeNet5.c5Size; f++){
+            int k = weights.c5Filters.offset(f);
+            double sum = 0;
+            for(int s = 0; s < LeNet5.s4Size; s++){
+                sum += kernels.dot(s4, ws.s4.offset(s), filters, k, taps);
+            }
+            ws.c5Sums.set(f, sum);
+            ws.c5.set(f, activation.apply(sum * weights.c5Weights.get(f) + weights.c5Biases.get(f)));
+        }
+    }
+
+    /**
+     * Writes the weighted sum of every C3 map at one position to ws.c3Sums, reading each 5x5
+     * window of the S2 maps once and accumulating it into every C3 map connected to that S2 map
+     */
+    private void sumC3(Weights weights, Workspace ws, int i, int j) {
+        Tensor s2 = ws.s2;
+        double[] in = s2.data();
+        double[] filters = weights.c3Filters.data();
+        double[] window = ws.window;
+        double[] sums = ws.c3Sums;
+        int rowStride = s2.stride(1);
+        int taps = LeNet5.filterWidth*LeNet5.filterHeight;
+        Arrays.fill(sums, 0);
+        for(int s = 0; s < LeNet5.s2Size; s++){
+            //Read the 5x5 window of this S2 map once
+            int row = s2.offset(s, i, j);
+            int t = 0;
+            for(int a = 0; a < LeNet5.filterWidth; a++){
+                for(int b = 0; b < LeNet5.filterHeight; b++){
+                    window[t++] = in[row + b];
+                }
+                row += rowStride;
+            }
+            //Accumulate it into every C3 map that reads this S2 map
+            int[] maps = C3Connections.outputs[s];
+            int[] mapFilters = C3Connections.outputFilters[s];
+            for(int n = 0; n < maps.length; n++){
+                sums[maps[n]] += kernels.dot(window, 0, filters, weights.c3Filters.offset(mapFilters[n]), taps);
+            }
+        }
+    }
+
+    /**
+     * Calculates a single output of the convolution
+     * @param matrices - the set of images, one of which is filtered
+     * @param m - the index of the image to be filtered
+     * @param filters - the set of filter kernels
+     * @param f - the index of the filter kernel
+     * @param x - the x position of the pixel
+     * @param y - the y position of the pixel
+     * @return - the double new pixel value of the convolution
+     */
+    static double convolvePixel(Tensor matrices, int m, Tensor filters, int f, int x, int y){
+        double[] matrix = matrices.data();
+        double[] filter = filters.data();
+        int rowStride = matrices.stride(1);
+        int row = matrices.offset(m, x, y);
+        int k = filters.offset(f);
+        double output = 0;
+        for(int i = 0; i < LeNet5.filterWidth; i++){
+            for(int j = 0; j < LeNet5.filterHeight; j++){
+                output += matrix[row + j] * filter[k++];
+            }
+            row += rowStride;
+        }
+        return output;
+    }
+}
@@ -0,0 +1,33 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event spanning one training epoch
+ */
+@Name("cnnet.Epoch")
+@Label("LeNet5 Epoch")
+@Category("LeNet5")
+@Description("One pass of training over the training set")
+@StackTrace(false)
+class EpochEvent extends jdk.jfr.Event {
+
+    @Label("Epoch")
+    int epoch;
+
+    @Label("Samples")
+    long samples;
+
+    @Label("Samples per Second")
+    double samplesPerSecond;
+
+    @Label("Mean Loss")
+    double loss;
+
+    @Label("Training Accuracy")
+    @Percentage
+    double accuracy;
+}
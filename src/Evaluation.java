@@ -0,0 +1,145 @@
+/**
+ * The results of classifying a labelled data set: the confusion matrix, from which the accuracy
+ * and the precision and recall of every digit follow, the wall-clock time taken and the
+ * distribution of the time taken per image.
+ *
+ * An Evaluation is not thread-safe. Each evaluating thread fills its own and they are merged
+ * once every image has been classified, so the threads never contend on a shared counter.
+ */
+public class Evaluation {
+
+    private final long[][] confusion = new long[LeNet5.outputSize][LeNet5.outputSize];
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private long count = 0;
+    private long nanos = 0;
+
+    /**
+     * Counts one classified image
+     * @param label - the digit the image shows
+     * @param prediction - the digit the network recognized
+     * @param latency - how long the image took to classify, in nanoseconds
+     */
+    void record(int label, int prediction, long latency) {
+        confusion[label][prediction]++;
+        this.latency.record(latency);
+        count++;
+    }
+
+    /**
+     * Adds the images counted by another Evaluation to this one
+     * @param other - Evaluation
+     */
+    void merge(Evaluation other) {
+        for(int l = 0; l < confusion.length; l++){
+            for(int p = 0; p < confusion.length; p++){
+                confusion[l][p] += other.confusion[l][p];
+            }
+        }
+        latency.merge(other.latency);
+        count += other.count;
+    }
+
+    /**
+     * @param nanos - the wall-clock time the whole data set took to classify
+     */
+    void setElapsed(long nanos) {
+        this.nanos = nanos;
+    }
+
+    /**
+     * @return the number of images classified
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @param label - the digit shown
+     * @param prediction - the digit recognized
+     * @return how many images of the label were recognized as the prediction
+     */
+    public long confusion(int label, int prediction) {
+        return confusion[label][prediction];
+    }
+
+    /**
+     * @return the fraction of images classified correctly
+     */
+    public double accuracy() {
+        long correct = 0;
+        for(int d = 0; d < confusion.length; d++){
+            correct += confusion[d][d];
+        }
+        return count == 0 ? 0 : (double)correct/count;
+    }
+
+    /**
+     * @param digit - int
+     * @return the fraction of the images recognized as the digit that show it, 0 if none were
+     */
+    public double precision(int digit) {
+        long predicted = 0;
+        for(int l = 0; l < confusion.length; l++){
+            predicted += confusion[l][digit];
+        }
+        return predicted == 0 ? 0 : (double)confusion[digit][digit]/predicted;
+    }
+
+    /**
+     * @param digit - int
+     * @return the fraction of the images showing the digit that were recognized as it, 0 if there were none
+     */
+    public double recall(int digit) {
+        long shown = 0;
+        for(int p = 0; p < confusion.length; p++){
+            shown += confusion[digit][p];
+        }
+        return shown == 0 ? 0 : (double)confusion[digit][digit]/shown;
+    }
+
+    /**
+     * @return the wall-clock time the data set took to classify, in nanoseconds
+     */
+    public long elapsed() {
+        return nanos;
+    }
+
+    /**
+     * @return the number of images classified per second of wall-clock time
+     */
+    public double imagesPerSecond() {
+        return count/(nanos/1e9);
+    }
+
+    /**
+     * @return the distribution of the time each image took to classify
+     */
+    public LatencyHistogram latency() {
+        return latency;
+    }
+
+    /**
+     * @return the accuracy and throughput, the latency percentiles, the precision and recall of
+     *         every digit and the confusion matrix, with a row per label and a column per prediction
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder(String.format(
+                "Classified %d images in %.3f s (%.0f images/sec), accuracy %.2f%%%n", count, nanos/1e9, imagesPerSecond(), 100*accuracy()));
+        report.append(String.format("Latency per image (us): mean %.1f, p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n",
+                latency.mean()/1e3, latency.percentile(0.5)/1e3, latency.percentile(0.9)/1e3,
+                latency.percentile(0.99)/1e3, latency.max()/1e3));
+        report.append(String.format("%-6s %10s %10s   ", "digit", "precision", "recall"));
+        for(int p = 0; p < confusion.length; p++){
+            report.append(String.format("%6d", p));
+        }
+        report.append(String.format("%n"));
+        for(int d = 0; d < confusion.length; d++){
+            report.append(String.format("%-6d %9.2f%% %9.2f%%   ", d, 100*precision(d), 100*recall(d)));
+            for(int p = 0; p < confusion.length; p++){
+                report.append(String.format("%6d", confusion[d][p]));
+            }
+            report.append(String.format("%n"));
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,478 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * LeNet5 computed in single precision. Weights, activations and gradients are all floats, which
+ * halves the memory of a model replica and the bandwidth every layer streams through, and lets
+ * the Vector API kernels pack twice as many lanes into each vector instruction.
+ *
+ * The layers, connection table, activation function, loss and per-sample SGD are the same as
+ * LeNet5's, and the parameters share the Weights layout, so a model can be trained in one
+ * precision and evaluated in the other. The convolution rows, the C3 and C5 windows and the
+ * dense layers, forward and backward, go through the float kernels of Kernels.SELECTED.
+ * PrecisionComparison trains both from the same starting weights and checks the test accuracy
+ * agrees. The convolutions are always computed directly and no LayerObserver is supported.
+ */
+public class FloatLeNet5 {
+
+    static final int paddedWidth = LeNet5.c1Width + LeNet5.filterWidth - 1;
+    static final int paddedHeight = LeNet5.c1Height + LeNet5.filterHeight - 1;
+
+    private static final int taps = LeNet5.filterWidth*LeNet5.filterHeight;
+
+    //Programmer-defined constants
+    private final float learningRate = 0.1f;
+    private int batchSize = 32;
+    private int loaderThreads = 2;
+    private int prefetchBatches = 4;
+    private long shuffleSeed = 313;
+    private final FloatWorkspace trainingWorkspace = new FloatWorkspace();
+    private final ThreadLocal<FloatWorkspace> inferenceWorkspaces = ThreadLocal.withInitial(FloatWorkspace::new);
+    private Activation activation = Activation.FAST;
+    private Kernels kernels = Kernels.SELECTED;
+    private MnistDataset trainingSet;
+
+    //Weight Matrices, all stored in one contiguous buffer
+    private FloatWeights weights;
+
+    /**
+     * Initializes the network on the given set of labelled images with LeNet5's random weights
+     * @param trainingSet - MnistDataset
+     */
+    public void initNetwork(MnistDataset trainingSet) {
+        Weights initial = new Weights();
+        LeNet5.initializeWeights(initial);
+        initNetwork(trainingSet, initial);
+    }
+
+    /**
+     * Initializes the network on the given set of labelled images, starting from the given weights
+     * @param trainingSet - MnistDataset
+     * @param initial - the starting weights, rounded to floats
+     */
+    public void initNetwork(MnistDataset trainingSet, Weights initial) {
+        if(trainingSet.size() == 0){
+            System.out.println("No training data.");
+            System.exit(0);
+        }
+        this.trainingSet = trainingSet;
+        this.weights = new FloatWeights(initial);
+    }
+
+    /**
+     * Sets how many samples the training loop takes from the data pipeline at a time
+     * @param batchSize - int
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets how many background threads shuffle training batches
+     * @param loaderThreads - int
+     */
+    public void setLoaderThreads(int loaderThreads) {
+        this.loaderThreads = loaderThreads;
+    }
+
+    /**
+     * Sets how the activation function of the convolution layers is computed
+     * @param activation - Activation.FAST (the default) or Activation.EXACT
+     */
+    public void setActivation(Activation activation) {
+        this.activation = activation;
+    }
+
+    /**
+     * Sets the kernels the convolutions and dense layers are computed with
+     * @param kernels - Kernels.SELECTED (the default), a ScalarKernels or a VectorApiKernels
+     */
+    public void setKernels(Kernels kernels) {
+        this.kernels = kernels;
+    }
+
+    /**
+     * @return the network's weights
+     */
+    public FloatWeights weights() {
+        return weights;
+    }
+
+    /**
+     * Trains the network the epoch number of times with per-sample stochastic gradient descent,
+     * visiting the samples in the same order as LeNet5 with the same seed
+     * @param epochs - int
+     */
+    public void trainNetwork(int epochs){
+        FloatWorkspace ws = trainingWorkspace;
+        try(BatchPipeline pipeline = new BatchPipeline(trainingSet, batchSize, loaderThreads, prefetchBatches, epochs, shuffleSeed)){
+            for(int e = 0; e < epochs; e++){
+                double epochError = 0;
+                int correct = 0;
+                for(int b = 0; b < pipeline.batchesPerEpoch(); b++){
+                    MiniBatch batch = pipeline.take();
+                    for(int t = 0; t < batch.size(); t++){
+                        copyImage(batch.image(t), ws.input);
+                        if(argmax(forward(ws)) == batch.label(t)){
+                            correct++;
+                        }
+                        Arrays.fill(ws.gradients.data(), 0);
+                        epochError += backward(ws, batch.label(t));
+                        update(ws.gradients);
+                    }
+                    pipeline.release(batch);
+                }
+                System.out.printf("Epoch %d completed. Mean error: %.4f, training accuracy: %.2f%%%n",
+                        e+1, epochError/trainingSet.size(), 100.0*correct/trainingSet.size());
+            }
+        }
+        System.out.println("\nDone training.");
+    }
+
+    /**
+     * Classifies a single image. Safe to call from any number of threads at once
+     * @param image - the normalized 28x28 image
+     * @return - the digit the network recognizes in the image
+     */
+    public int predict(Tensor image){
+        FloatWorkspace ws = inferenceWorkspaces.get();
+        copyImage(image, ws.input);
+        return argmax(forward(ws));
+    }
+
+    /**
+     * Classifies every image in a data set, splitting the images across all available cores
+     * @param images - the images to classify
+     * @return - the digit recognized in each image, in data set order
+     */
+    public int[] predictBatch(MnistDataset images){
+        int[] predictions = new int[images.size()];
+        int chunks = Math.min(images.size(), 4*Runtime.getRuntime().availableProcessors());
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            FloatWorkspace ws = inferenceWorkspaces.get();
+            int end = (int)((long)images.size()*(c+1)/chunks);
+            for(int i = (int)((long)images.size()*c/chunks); i < end; i++){
+                images.copyImage(i, ws.input, 0);
+                predictions[i] = argmax(forward(ws));
+            }
+        });
+        return predictions;
+    }
+
+    /**
+     * Rounds a normalized image to floats
+     * @param image - the 28x28 image
+     * @param input - the workspace's input layer
+     */
+    private static void copyImage(Tensor image, float[] input){
+        double[] data = image.data();
+        int offset = image.offset();
+        for(int p = 0; p < input.length; p++){
+            input[p] = (float)data[offset + p];
+        }
+    }
+
+    /**
+     * Feeds the image in ws.input forward through every layer
+     * @param ws - the workspace the activations of every layer are written to
+     * @return - the activations of the output layer
+     */
+    private float[] forward(FloatWorkspace ws){
+        float[] w = weights.data();
+
+        //C1: Padded convolution of the input from a 32 x 32 to 28 x 28, each row activated as soon as it is computed
+        for(int i = 0; i < LeNet5.inputWidth; i++){
+            System.arraycopy(ws.input, i*LeNet5.inputHeight, ws.padded,
+                    (i + LeNet5.filterWidth/2)*paddedHeight + LeNet5.filterHeight/2, LeNet5.inputHeight);
+        }
+        int c1MapSize = LeNet5.c1Width*LeNet5.c1Height;
+        for(int f = 0; f < LeNet5.c1Size; f++){
+            float bias = w[FloatWeights.c1Biases + f];
+            for(int i = 0; i < LeNet5.c1Width; i++){
+                int row = f*c1MapSize + i*LeNet5.c1Height;
+                kernels.convolveRow(ws.padded, i*paddedHeight, paddedHeight, w, FloatWeights.c1Filters + f*taps,
+                        ws.c1, row, LeNet5.c1Height);
+                activation.apply(ws.c1, row, row + LeNet5.c1Height, bias);
+            }
+        }
+
+        //S2: Pooling of the 6 matrices from C1 into 6 14x14 matrices
+        pool(ws.c1, LeNet5.c1Size, LeNet5.c1Width, LeNet5.c1Height, w, FloatWeights.s2Weights, FloatWeights.s2Biases, ws.s2Means, ws.s2);
+
+        //C3: each position reads the 5x5 window of every S2 map once, see C3Connections
+        int s2MapSize = LeNet5.s2Width*LeNet5.s2Height;
+        int c3MapSize = LeNet5.c3Width*LeNet5.c3Height;
+        for(int i = 0; i < LeNet5.c3Width; i++){
+            for(int j = 0; j < LeNet5.c3Height; j++){
+                Arrays.fill(ws.c3Sums, 0);
+                for(int s = 0; s < LeNet5.s2Size; s++){
+                    int row = s*s2MapSize + i*LeNet5.s2Height + j;
+                    for(int a = 0; a < LeNet5.filterWidth; a++){
+                        System.arraycopy(ws.s2, row, ws.window, a*LeNet5.filterHeight, LeNet5.filterHeight);
+                        row += LeNet5.s2Height;
+                    }
+                    int[] maps = C3Connections.outputs[s];
+                    int[] mapFilters = C3Connections.outputFilters[s];
+                    for(int n = 0; n < maps.length; n++){
+                        ws.c3Sums[maps[n]] += kernels.dot(ws.window, 0, w, FloatWeights.c3Filters + mapFilters[n]*taps, taps);
+                    }
+                }
+                for(int f = 0; f < LeNet5.c3Size; f++){
+                    ws.c3[f*c3MapSize + i*LeNet5.c3Height + j] = ws.c3Sums[f];
+                }
+            }
+            for(int f = 0; f < LeNet5.c3Size; f++){
+                int row = f*c3MapSize + i*LeNet5.c3Height;
+                activation.apply(ws.c3, row, row + LeNet5.c3Height, w[FloatWeights.c3Biases + f]);
+            }
+        }
+
+        //S4: Pooling of the 16 matrices from C3 into 16 5x5 matrices
+        pool(ws.c3, LeNet5.c3Size, LeNet5.c3Width, LeNet5.c3Height, w, FloatWeights.s4Weights, FloatWeights.s4Biases, ws.s4Means, ws.s4);
+
+        //C5: every filter is applied to all 16 S4 maps and the sum is scaled by c5Weights[f]
+        int s4MapSize = LeNet5.s4Width*LeNet5.s4Height;
+        for(int f = 0; f < LeNet5.c5Size; f++){
+            int filter = FloatWeights.c5Filters + f*taps;
+            float sum = 0;
+            for(int s = 0; s < LeNet5.s4Size; s++){
+                sum += kernels.dot(ws.s4, s*s4MapSize, w, filter, taps);
+            }
+            ws.c5Sums[f] = sum;
+            ws.c5[f] = (float)activation.apply(sum * w[FloatWeights.c5Weights + f] + w[FloatWeights.c5Biases + f]);
+        }
+
+        //F6 and Output: fully connected, the output layer has no biases
+        fullyConnect(ws.c5, w, FloatWeights.f6Weights, FloatWeights.f6Biases, ws.f6);
+        fullyConnect(ws.f6, w, FloatWeights.outputWeights, -1, ws.output);
+        return ws.output;
+    }
+
+    /**
+     * Backpropagates the error of the last forward pass through every layer, adding the gradient
+     * of the error with respect to every weight onto the workspace's gradients
+     * @param ws - the workspace the sample was fed forward through
+     * @param label - the digit in the image
+     * @return - the error of the sample, half the squared distance to the one-hot encoded label
+     */
+    private double backward(FloatWorkspace ws, int label){
+        float[] w = weights.data();
+        float[] g = ws.gradients.data();
+
+        //Output
+        double error = 0;
+        for(int o = 0; o < LeNet5.outputSize; o++){
+            float difference = ws.output[o] - (o == label ? 1 : 0);
+            ws.outputGradient[o] = difference;
+            error += 0.5 * difference * difference;
+        }
+        fullyConnectBackward(ws.f6, w, g, FloatWeights.outputWeights, -1, ws.outputGradient, ws.f6Gradient);
+
+        //F6
+        fullyConnectBackward(ws.c5, w, g, FloatWeights.f6Weights, FloatWeights.f6Biases, ws.f6Gradient, ws.c5Gradient);
+
+        //C5: the filter's gradient and the S4 gradients are one axpy per S4 map
+        activation.multiplyByDerivative(ws.c5Gradient, 0, ws.c5, 0, ws.c5.length);
+        Arrays.fill(ws.s4Gradient, 0);
+        int s4MapSize = LeNet5.s4Width*LeNet5.s4Height;
+        for(int f = 0; f < LeNet5.c5Size; f++){
+            float delta = ws.c5Gradient[f];
+            g[FloatWeights.c5Weights + f] += delta * ws.c5Sums[f];
+            g[FloatWeights.c5Biases + f] += delta;
+            float sumDelta = delta * w[FloatWeights.c5Weights + f];
+            int filter = FloatWeights.c5Filters + f*taps;
+            for(int s = 0; s < LeNet5.s4Size; s++){
+                kernels.axpy(sumDelta, ws.s4, s*s4MapSize, g, filter, taps);
+                kernels.axpy(sumDelta, w, filter, ws.s4Gradient, s*s4MapSize, taps);
+            }
+        }
+
+        //S4
+        poolBackward(ws.s4Gradient, LeNet5.s4Size, LeNet5.s4Width, LeNet5.s4Height, ws.s4Means, w, g,
+                FloatWeights.s4Weights, FloatWeights.s4Biases, ws.c3Gradient);
+
+        //C3: each map only backpropagates into the S2 maps C3Connections connects it to
+        activation.multiplyByDerivative(ws.c3Gradient, 0, ws.c3, 0, ws.c3.length);
+        Arrays.fill(ws.s2Gradient, 0);
+        int s2MapSize = LeNet5.s2Width*LeNet5.s2Height;
+        int c3MapSize = LeNet5.c3Width*LeNet5.c3Height;
+        for(int f = 0; f < LeNet5.c3Size; f++){
+            int[] inputs = C3Connections.inputs[f];
+            for(int k = 0; k < inputs.length; k++){
+                int filter = FloatWeights.c3Filters + (C3Connections.firstFilter[f] + k)*taps;
+                convolveBackward(ws.s2, inputs[k]*s2MapSize, LeNet5.s2Height, w, g, filter,
+                        ws.c3Gradient, f*c3MapSize, LeNet5.c3Width, LeNet5.c3Height, ws.s2Gradient);
+            }
+            g[FloatWeights.c3Biases + f] += sum(ws.c3Gradient, f*c3MapSize, c3MapSize);
+        }
+
+        //S2
+        poolBackward(ws.s2Gradient, LeNet5.s2Size, LeNet5.s2Width, LeNet5.s2Height, ws.s2Means, w, g,
+                FloatWeights.s2Weights, FloatWeights.s2Biases, ws.c1Gradient);
+
+        //C1: the error does not need to be propagated back into the input
+        activation.multiplyByDerivative(ws.c1Gradient, 0, ws.c1, 0, ws.c1.length);
+        int c1MapSize = LeNet5.c1Width*LeNet5.c1Height;
+        for(int f = 0; f < LeNet5.c1Size; f++){
+            convolveBackward(ws.padded, 0, paddedHeight, w, g, FloatWeights.c1Filters + f*taps,
+                    ws.c1Gradient, f*c1MapSize, LeNet5.c1Width, LeNet5.c1Height, null);
+            g[FloatWeights.c1Biases + f] += sum(ws.c1Gradient, f*c1MapSize, c1MapSize);
+        }
+        return error;
+    }
+
+    /**
+     * Takes one step of gradient descent
+     * @param gradients - the gradients of one sample
+     */
+    private void update(FloatWeights gradients){
+        kernels.axpy(-learningRate, gradients.data(), 0, weights.data(), 0, weights.size());
+    }
+
+    /**
+     * Average pools each map with a 2x2 grid and stride 2, scaling by a trainable weight and adding a trainable bias
+     */
+    private static void pool(float[] input, int maps, int width, int height, float[] w, int poolingWeights, int biases,
+                             float[] means, float[] output){
+        int outWidth = width/2;
+        int outHeight = height/2;
+        for(int m = 0; m < maps; m++){
+            float weight = w[poolingWeights + m];
+            float bias = w[biases + m];
+            for(int i = 0; i < outWidth; i++){
+                for(int j = 0; j < outHeight; j++){
+                    int row = m*width*height + 2*i*height + 2*j;
+                    float mean = (input[row] + input[row + 1] + input[row + height] + input[row + height + 1])/4;
+                    int o = m*outWidth*outHeight + i*outHeight + j;
+                    means[o] = mean;
+                    output[o] = mean * weight + bias;
+                }
+            }
+        }
+    }
+
+    /**
+     * Backpropagates through pool() into its pooling weights, biases and input
+     */
+    private static void poolBackward(float[] outputGradients, int maps, int outWidth, int outHeight, float[] means,
+                                     float[] w, float[] g, int poolingWeights, int biases, float[] inputGradients){
+        Arrays.fill(inputGradients, 0);
+        int width = 2*outWidth;
+        int height = 2*outHeight;
+        for(int m = 0; m < maps; m++){
+            float weightGradient = 0;
+            float biasGradient = 0;
+            float spread = w[poolingWeights + m]/4;
+            for(int i = 0; i < outWidth; i++){
+                for(int j = 0; j < outHeight; j++){
+                    int o = m*outWidth*outHeight + i*outHeight + j;
+                    float delta = outputGradients[o];
+                    weightGradient += delta * means[o];
+                    biasGradient += delta;
+                    int row = m*width*height + 2*i*height + 2*j;
+                    inputGradients[row] += delta * spread;
+                    inputGradients[row + 1] += delta * spread;
+                    inputGradients[row + height] += delta * spread;
+                    inputGradients[row + height + 1] += delta * spread;
+                }
+            }
+            g[poolingWeights + m] += weightGradient;
+            g[biases + m] += biasGradient;
+        }
+    }
+
+    /**
+     * Feeds a layer forward through a fully connected weight matrix
+     * @param input - the activations of the previous layer
+     * @param w - the weights
+     * @param layerWeights - the index in w of the first row of weights, one row per output
+     * @param biases - the index in w of the biases, or -1 if the layer has none
+     * @param output - the layer the weighted sums are written to
+     */
+    private void fullyConnect(float[] input, float[] w, int layerWeights, int biases, float[] output){
+        for(int o = 0; o < output.length; o++){
+            float sum = kernels.dot(input, 0, w, layerWeights + o*input.length, input.length);
+            output[o] = biases < 0 ? sum : sum + w[biases + o];
+        }
+    }
+
+    /**
+     * Backpropagates through fullyConnect()
+     */
+    private void fullyConnectBackward(float[] input, float[] w, float[] g, int layerWeights, int biases,
+                                      float[] outputGradients, float[] inputGradients){
+        Arrays.fill(inputGradients, 0);
+        for(int o = 0; o < outputGradients.length; o++){
+            float delta = outputGradients[o];
+            int row = layerWeights + o*input.length;
+            kernels.axpy(delta, input, 0, g, row, input.length);
+            kernels.axpy(delta, w, row, inputGradients, 0, input.length);
+            if(biases >= 0){
+                g[biases + o] += delta;
+            }
+        }
+    }
+
+    /**
+     * Backpropagates one map of a valid 5x5 convolution into its filter and, if given, its input
+     * @param input - the maps that were filtered
+     * @param inputStart - the index in input of the filtered map
+     * @param rowStride - the distance between rows of the filtered map
+     * @param w - the weights
+     * @param g - the weight gradients
+     * @param filter - the index in w and g of the filter
+     * @param outputGradients - the error gradients of the convolution's outputs
+     * @param outputStart - the index in outputGradients of the output map
+     * @param width - the width of the output map
+     * @param height - the height of the output map
+     * @param inputGradients - the error gradients of the filtered maps, laid out like input, or null
+     */
+    private static void convolveBackward(float[] input, int inputStart, int rowStride, float[] w, float[] g, int filter,
+                                         float[] outputGradients, int outputStart, int width, int height, float[] inputGradients){
+        for(int i = 0; i < width; i++){
+            for(int j = 0; j < height; j++){
+                float delta = outputGradients[outputStart + i*height + j];
+                if(delta == 0){
+                    continue;
+                }
+                int row = inputStart + i*rowStride + j;
+                int k = filter;
+                for(int a = 0; a < LeNet5.filterWidth; a++){
+                    for(int b = 0; b < LeNet5.filterHeight; b++){
+                        g[k] += delta * input[row + b];
+                        if(inputGradients != null){
+                            inputGradients[row + b] += delta * w[k];
+                        }
+                        k++;
+                    }
+                    row += rowStride;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return - the sum of length values of data starting at start
+     */
+    private static float sum(float[] data, int start, int length){
+        float sum = 0;
+        for(int i = start; i < start + length; i++){
+            sum += data[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @param output - the activations of the output layer
+     * @return - the index of the most active output node
+     */
+    private static int argmax(float[] output){
+        int best = 0;
+        for(int o = 1; o < output.length; o++){
+            if(output[o] > output[best]){
+                best = o;
+            }
+        }
+        return best;
+    }
+}
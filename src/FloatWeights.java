@@ -0,0 +1,73 @@
+/**
+ * All of the trainable parameters of a LeNet5 network stored as floats, for FloatLeNet5.
+ * The parameters are laid out in one float[] exactly as Weights lays them out in its double[],
+ * so each field here is the offset of the Weights tensor of the same name and a model converts
+ * between the two precisions with a single loop.
+ */
+public class FloatWeights {
+
+    //Only used for its offsets
+    private static final Weights layout = new Weights();
+
+    static final int c1Filters = layout.c1Filters.offset();
+    static final int c1Biases = layout.c1Biases.offset();
+    static final int s2Weights = layout.s2Weights.offset();
+    static final int s2Biases = layout.s2Biases.offset();
+    static final int c3Filters = layout.c3Filters.offset();
+    static final int c3Biases = layout.c3Biases.offset();
+    static final int s4Weights = layout.s4Weights.offset();
+    static final int s4Biases = layout.s4Biases.offset();
+    static final int c5Filters = layout.c5Filters.offset();
+    static final int c5Weights = layout.c5Weights.offset();
+    static final int c5Biases = layout.c5Biases.offset();
+    static final int f6Weights = layout.f6Weights.offset();
+    static final int f6Biases = layout.f6Biases.offset();
+    static final int outputWeights = layout.outputWeights.offset();
+
+    private final float[] data;
+
+    /**
+     * Allocates a zero-filled set of parameters shaped for LeNet5
+     */
+    public FloatWeights() {
+        this.data = new float[layout.size()];
+    }
+
+    /**
+     * Rounds a double precision model to floats
+     * @param weights - the parameters to copy
+     */
+    public FloatWeights(Weights weights) {
+        this();
+        double[] source = weights.data();
+        for(int i = 0; i < data.length; i++){
+            data[i] = (float)source[i];
+        }
+    }
+
+    /**
+     * @return a double precision copy of the parameters
+     */
+    public Weights toWeights() {
+        Weights weights = new Weights();
+        double[] target = weights.data();
+        for(int i = 0; i < data.length; i++){
+            target[i] = data[i];
+        }
+        return weights;
+    }
+
+    /**
+     * @return the buffer holding every parameter
+     */
+    public float[] data() {
+        return data;
+    }
+
+    /**
+     * @return the total number of trainable parameters
+     */
+    public int size() {
+        return data.length;
+    }
+}
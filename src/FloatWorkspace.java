@@ -0,0 +1,37 @@
+/**
+ * The single precision counterpart of Workspace: every buffer one thread needs to feed an image
+ * through FloatLeNet5 and backpropagate its error. Feature maps are stored flat, map after map,
+ * each in row-major order.
+ */
+public class FloatWorkspace {
+
+    //Forward pass
+    final float[] input = new float[LeNet5.inputWidth*LeNet5.inputHeight];
+    final float[] padded = new float[FloatLeNet5.paddedWidth*FloatLeNet5.paddedHeight];
+    final float[] c1 = new float[LeNet5.c1Size*LeNet5.c1Width*LeNet5.c1Height];
+    final float[] s2Means = new float[LeNet5.s2Size*LeNet5.s2Width*LeNet5.s2Height];
+    final float[] s2 = new float[LeNet5.s2Size*LeNet5.s2Width*LeNet5.s2Height];
+    final float[] c3 = new float[LeNet5.c3Size*LeNet5.c3Width*LeNet5.c3Height];
+    final float[] s4Means = new float[LeNet5.s4Size*LeNet5.s4Width*LeNet5.s4Height];
+    final float[] s4 = new float[LeNet5.s4Size*LeNet5.s4Width*LeNet5.s4Height];
+    final float[] c5Sums = new float[LeNet5.c5Size];
+    final float[] c5 = new float[LeNet5.c5Size];
+    final float[] f6 = new float[LeNet5.f6Size];
+    final float[] output = new float[LeNet5.outputSize];
+
+    //Scratch space for the fused C3 kernel: one S2 window and the running sum of every C3 map at one position
+    final float[] window = new float[LeNet5.filterWidth*LeNet5.filterHeight];
+    final float[] c3Sums = new float[LeNet5.c3Size];
+
+    //Backward pass: the gradient of the error with respect to each layer's output
+    final float[] c1Gradient = new float[c1.length];
+    final float[] s2Gradient = new float[s2.length];
+    final float[] c3Gradient = new float[c3.length];
+    final float[] s4Gradient = new float[s4.length];
+    final float[] c5Gradient = new float[c5.length];
+    final float[] f6Gradient = new float[f6.length];
+    final float[] outputGradient = new float[output.length];
+
+    //The gradient of the error with respect to every weight, summed over the samples since the last clear
+    final FloatWeights gradients = new FloatWeights();
+}
@@ -0,0 +1,125 @@
+import java.util.Arrays;
+
+/**
+ * A register- and cache-blocked dense matrix multiply over row-major double[] matrices.
+ *
+ * The product is built in blocks of K_BLOCK rows of B by N_BLOCK columns so the block of B
+ * being reused stays in L1, and within a block 4x4 tiles of C are accumulated in local
+ * variables so every value loaded from A and B is used four times before the next load.
+ */
+public class Gemm {
+
+    static final int K_BLOCK = 128;
+    static final int N_BLOCK = 256;
+
+    private Gemm() {
+    }
+
+    /**
+     * C = A * B, overwriting C
+     * @param a - the m x k matrix A
+     * @param aOffset - the index of A's first element
+     * @param b - the k x n matrix B
+     * @param bOffset - the index of B's first element
+     * @param c - the m x n matrix C
+     * @param cOffset - the index of C's first element
+     * @param m - the number of rows of A and C
+     * @param n - the number of columns of B and C
+     * @param k - the number of columns of A and rows of B
+     */
+    public static void multiply(double[] a, int aOffset, double[] b, int bOffset, double[] c, int cOffset, int m, int n, int k) {
+        for(int i = 0; i < m; i++){
+            Arrays.fill(c, cOffset + i*n, cOffset + i*n + n, 0);
+        }
+        for(int kk = 0; kk < k; kk += K_BLOCK){
+            int kEnd = Math.min(k, kk + K_BLOCK);
+            for(int jj = 0; jj < n; jj += N_BLOCK){
+                int jEnd = Math.min(n, jj + N_BLOCK);
+                int i = 0;
+                for(; i + 4 <= m; i += 4){
+                    int j = jj;
+                    for(; j + 4 <= jEnd; j += 4){
+                        tile4x4(a, aOffset, b, bOffset, c, cOffset, n, k, i, j, kk, kEnd);
+                    }
+                    for(; j < jEnd; j++){
+                        column4(a, aOffset, b, bOffset, c, cOffset, n, k, i, j, kk, kEnd);
+                    }
+                }
+                for(; i < m; i++){
+                    row(a, aOffset, b, bOffset, c, cOffset, n, k, i, jj, jEnd, kk, kEnd);
+                }
+            }
+        }
+    }
+
+    /**
+     * Accumulates the 4x4 tile of C at (i, j) over rows kk..kEnd of B
+     */
+    private static void tile4x4(double[] a, int aOffset, double[] b, int bOffset, double[] c, int cOffset,
+                                int n, int k, int i, int j, int kk, int kEnd) {
+        int c0 = cOffset + i*n + j;
+        int c1 = c0 + n;
+        int c2 = c1 + n;
+        int c3 = c2 + n;
+        double c00 = c[c0], c01 = c[c0+1], c02 = c[c0+2], c03 = c[c0+3];
+        double c10 = c[c1], c11 = c[c1+1], c12 = c[c1+2], c13 = c[c1+3];
+        double c20 = c[c2], c21 = c[c2+1], c22 = c[c2+2], c23 = c[c2+3];
+        double c30 = c[c3], c31 = c[c3+1], c32 = c[c3+2], c33 = c[c3+3];
+        int a0 = aOffset + i*k;
+        int a1 = a0 + k;
+        int a2 = a1 + k;
+        int a3 = a2 + k;
+        for(int p = kk; p < kEnd; p++){
+            int bp = bOffset + p*n + j;
+            double b0 = b[bp], b1 = b[bp+1], b2 = b[bp+2], b3 = b[bp+3];
+            double x0 = a[a0 + p], x1 = a[a1 + p], x2 = a[a2 + p], x3 = a[a3 + p];
+            c00 = Math.fma(x0, b0, c00); c01 = Math.fma(x0, b1, c01); c02 = Math.fma(x0, b2, c02); c03 = Math.fma(x0, b3, c03);
+            c10 = Math.fma(x1, b0, c10); c11 = Math.fma(x1, b1, c11); c12 = Math.fma(x1, b2, c12); c13 = Math.fma(x1, b3, c13);
+            c20 = Math.fma(x2, b0, c20); c21 = Math.fma(x2, b1, c21); c22 = Math.fma(x2, b2, c22); c23 = Math.fma(x2, b3, c23);
+            c30 = Math.fma(x3, b0, c30); c31 = Math.fma(x3, b1, c31); c32 = Math.fma(x3, b2, c32); c33 = Math.fma(x3, b3, c33);
+        }
+        c[c0] = c00; c[c0+1] = c01; c[c0+2] = c02; c[c0+3] = c03;
+        c[c1] = c10; c[c1+1] = c11; c[c1+2] = c12; c[c1+3] = c13;
+        c[c2] = c20; c[c2+1] = c21; c[c2+2] = c22; c[c2+3] = c23;
+        c[c3] = c30; c[c3+1] = c31; c[c3+2] = c32; c[c3+3] = c33;
+    }
+
+    /**
+     * Accumulates a single column of four rows of C, for the columns left over after the 4x4 tiles
+     */
+    private static void column4(double[] a, int aOffset, double[] b, int bOffset, double[] c, int cOffset,
+                                int n, int k, int i, int j, int kk, int kEnd) {
+        int a0 = aOffset + i*k;
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        for(int p = kk; p < kEnd; p++){
+            double bv = b[bOffset + p*n + j];
+            s0 += a[a0 + p]*bv;
+            s1 += a[a0 + k + p]*bv;
+            s2 += a[a0 + 2*k + p]*bv;
+            s3 += a[a0 + 3*k + p]*bv;
+        }
+        int ci = cOffset + i*n + j;
+        c[ci] += s0;
+        c[ci + n] += s1;
+        c[ci + 2*n] += s2;
+        c[ci + 3*n] += s3;
+    }
+
+    /**
+     * Accumulates columns jj..jEnd of a single row of C, for the rows left over after the 4x4 tiles
+     */
+    private static void row(double[] a, int aOffset, double[] b, int bOffset, double[] c, int cOffset,
+                            int n, int k, int i, int jj, int jEnd, int kk, int kEnd) {
+        int ci = cOffset + i*n;
+        for(int p = kk; p < kEnd; p++){
+            double av = a[aOffset + i*k + p];
+            if(av == 0){
+                continue;
+            }
+            int bp = bOffset + p*n;
+            for(int j = jj; j < jEnd; j++){
+                c[ci + j] += av*b[bp + j];
+            }
+        }
+    }
+}
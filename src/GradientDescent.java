@@ -0,0 +1,12 @@
+/**
+ * Plain gradient descent: every weight moves by the step times its gradient. The default optimizer
+ */
+public class GradientDescent implements Optimizer {
+
+    @Override
+    public void update(double[] weights, double[] gradients, int start, int end, double step) {
+        for(int i = start; i < end; i++){
+            weights[i] -= step * gradients[i];
+        }
+    }
+}
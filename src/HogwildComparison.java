@@ -0,0 +1,61 @@
+import java.io.IOException;
+
+/**
+ * Trains LeNet5 from the same starting weights with single-threaded SGD, with Hogwild on every
+ * core, and with Hogwild and striped updates, and prints how the test accuracy of each improves
+ * against the wall-clock time spent training, along with the training throughput.
+ *
+ * Usage: HogwildComparison [epochs] [threads]
+ */
+public class HogwildComparison {
+
+    /**
+     * Main method
+     * @param args - String[]
+     */
+    public static void main(String[] args){
+        int epochs = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        MnistDataset trainingSet;
+        MnistDataset testSet;
+        try{
+            trainingSet = MnistDataset.loadTrainingSet();
+            testSet = MnistDataset.loadTestSet();
+        }catch(IOException e){
+            System.err.println(e);
+            return;
+        }
+
+        String[] modes = {"sgd", "hogwild", "striped"};
+        double[][] seconds = new double[modes.length][epochs];
+        double[][] accuracy = new double[modes.length][epochs];
+        for(int m = 0; m < modes.length; m++){
+            LeNet5 net = new LeNet5();
+            net.initNetwork(trainingSet);
+            if(m > 0){
+                net.setTrainingThreads(threads);
+                net.setHogwild(true, m == 2);
+            }
+            double elapsed = 0;
+            for(int e = 0; e < epochs; e++){
+                //One epoch per call so accuracy can be measured in between, each with its own shuffle
+                net.setShuffleSeed(313 + e);
+                long start = System.nanoTime();
+                net.trainNetwork(1);
+                elapsed += (System.nanoTime() - start)/1e9;
+                seconds[m][e] = elapsed;
+                accuracy[m][e] = 100*net.testNetworkImages(testSet).accuracy();
+            }
+        }
+
+        System.out.printf("%nSGD on 1 thread against Hogwild on %d threads%n", threads);
+        System.out.printf("%-8s %6s %12s %16s %10s%n", "mode", "epoch", "elapsed (s)", "samples/sec", "accuracy");
+        for(int m = 0; m < modes.length; m++){
+            for(int e = 0; e < epochs; e++){
+                double epochSeconds = seconds[m][e] - (e > 0 ? seconds[m][e - 1] : 0);
+                System.out.printf("%-8s %6d %12.2f %16.0f %9.2f%%%n", modes[m], e + 1, seconds[m][e],
+                        trainingSet.size()/epochSeconds, accuracy[m][e]);
+            }
+        }
+    }
+}
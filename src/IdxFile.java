@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only, memory-mapped view of a file in the IDX format used by the MNIST data set.
+ * The header is validated when the file is opened and the unsigned byte payload is left
+ * in the mapping, so nothing is copied onto the heap.
+ *
+ * The format is a big-endian header of a 4-byte magic number (two zero bytes, a type code
+ * and the number of dimensions), one 4-byte size per dimension, then the data itself.
+ */
+public class IdxFile {
+
+    public static final int UNSIGNED_BYTE = 0x08;
+
+    private final String filepath;
+    private final int[] dimensions;
+    private final ByteBuffer data;
+
+    private IdxFile(String filepath, int[] dimensions, ByteBuffer data) {
+        this.filepath = filepath;
+        this.dimensions = dimensions;
+        this.data = data;
+    }
+
+    /**
+     * Memory-maps the IDX file at the given path and checks that its header describes
+     * an unsigned byte payload of the given rank that exactly fills the file
+     * @param filepath - String
+     * @param expectedRank - the number of dimensions the file must have
+     * @return the mapped IdxFile
+     * @throws IOException if the file cannot be read or is not a valid IDX file
+     */
+    public static IdxFile map(String filepath, int expectedRank) throws IOException {
+        Path path = Paths.get(filepath);
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            long fileLength = channel.size();
+            if(fileLength < 4){
+                throw new IOException(filepath + ": too short to be an IDX file");
+            }
+            ByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLength).order(ByteOrder.BIG_ENDIAN);
+
+            //Magic number: 0x00 0x00 <type> <rank>
+            int magic = file.getInt(0);
+            int type = (magic >> 8) & 0xFF;
+            int rank = magic & 0xFF;
+            if((magic >>> 16) != 0){
+                throw new IOException(filepath + ": bad magic number 0x" + Integer.toHexString(magic));
+            }
+            if(type != UNSIGNED_BYTE){
+                throw new IOException(filepath + ": unsupported data type 0x" + Integer.toHexString(type));
+            }
+            if(rank != expectedRank){
+                throw new IOException(filepath + ": expected " + expectedRank + " dimensions but found " + rank);
+            }
+
+            int headerLength = 4 + 4*rank;
+            if(fileLength < headerLength){
+                throw new IOException(filepath + ": truncated header");
+            }
+            int[] dimensions = new int[rank];
+            long payloadLength = 1;
+            for(int d = 0; d < rank; d++){
+                dimensions[d] = file.getInt(4 + 4*d);
+                if(dimensions[d] <= 0){
+                    throw new IOException(filepath + ": dimension " + d + " has size " + dimensions[d]);
+                }
+                payloadLength *= dimensions[d];
+            }
+            if(headerLength + payloadLength != fileLength){
+                throw new IOException(filepath + ": header describes " + payloadLength
+                        + " bytes of data but the file holds " + (fileLength - headerLength));
+            }
+
+            ByteBuffer data = file.position(headerLength).slice().asReadOnlyBuffer();
+            return new IdxFile(filepath, dimensions, data);
+        }
+    }
+
+    /**
+     * @return the number of items in the file (the size of the first dimension)
+     */
+    public int count() {
+        return dimensions[0];
+    }
+
+    /**
+     * @param d - the dimension
+     * @return the size of the given dimension
+     */
+    public int dimension(int d) {
+        return dimensions[d];
+    }
+
+    /**
+     * @return the number of dimensions
+     */
+    public int rank() {
+        return dimensions.length;
+    }
+
+    /**
+     * @return the mapped payload, starting after the header
+     */
+    public ByteBuffer data() {
+        return data.duplicate();
+    }
+
+    /**
+     * @return the path the file was mapped from
+     */
+    public String path() {
+        return filepath;
+    }
+}
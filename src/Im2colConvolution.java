@@ -0,0 +1,96 @@
+import java.util.Arrays;
+
+/**
+ * Lowers each convolution layer to a single matrix multiply. The input windows are unrolled
+ * ("im2col") into a matrix with one row per filter tap and one column per output pixel, so that
+ * the layer's output is the filter matrix times the column matrix, computed by Gemm.
+ *
+ * C1 multiplies its 6x25 filter matrix by the 25x784 columns of the padded input.
+ * C3 multiplies a 16x150 filter matrix by the 150x100 columns of all six S2 maps, where the
+ * filter matrix holds the filter of every S2 to C3 connection and zeros everywhere else.
+ * C5 applies the same filter to all 16 S4 maps, so the maps are summed into one 25 value column
+ * first and the layer becomes a 120x25 by 25x1 product.
+ */
+public class Im2colConvolution implements ConvolutionEngine {
+
+    private static final int taps = LeNet5.filterWidth*LeNet5.filterHeight;
+
+    @Override
+    public void convolveC1(Weights weights, Activation activation, Workspace ws) {
+        int pixels = LeNet5.c1Width*LeNet5.c1Height;
+        im2col(ws.padded, 0, LeNet5.c1Width, LeNet5.c1Height, ws.columns, 0);
+        Gemm.multiply(weights.c1Filters.data(), weights.c1Filters.offset(), ws.columns, 0,
+                ws.c1.data(), ws.c1.offset(), LeNet5.c1Size, pixels, taps);
+        ConvolutionEngine.activate(ws.c1, weights.c1Biases, activation);
+    }
+
+    @Override
+    public void convolveC3(Weights weights, Activation activation, Workspace ws) {
+        int pixels = LeNet5.c3Width*LeNet5.c3Height;
+        int k = LeNet5.s2Size*taps;
+        for(int s = 0; s < LeNet5.s2Size; s++){
+            im2col(ws.s2, s, LeNet5.c3Width, LeNet5.c3Height, ws.columns, s*taps*pixels);
+        }
+
+        //Scatter the connected filters into the dense 16 x 150 filter matrix
+        double[] kernels = ws.c3Kernels;
+        Arrays.fill(kernels, 0);
+        double[] filters = weights.c3Filters.data();
+        for(int f = 0; f < LeNet5.c3Size; f++){
+            int[] inputs = C3Connections.inputs[f];
+            for(int n = 0; n < inputs.length; n++){
+                System.arraycopy(filters, weights.c3Filters.offset(C3Connections.firstFilter[f] + n),
+                        kernels, f*k + inputs[n]*taps, taps);
+            }
+        }
+        Gemm.multiply(kernels, 0, ws.columns, 0, ws.c3.data(), ws.c3.offset(), LeNet5.c3Size, pixels, k);
+        ConvolutionEngine.activate(ws.c3, weights.c3Biases, activation);
+    }
+
+    @Override
+    public void convolveC5(Weights weights, Activation activation, Workspace ws) {
+        double[] column = ws.c5Column;
+        double[] s4 = ws.s4.data();
+        Arrays.fill(column, 0);
+        for(int s = 0; s < LeNet5.s4Size; s++){
+            int start = ws.s4.offset(s);
+            for(int p = 0; p < taps; p++){
+                column[p] += s4[start + p];
+            }
+        }
+        Gemm.multiply(weights.c5Filters.data(), weights.c5Filters.offset(), column, 0,
+                ws.c5Sums.data(), ws.c5Sums.offset(), LeNet5.c5Size, 1, taps);
+        for(int f = 0; f < LeNet5.c5Size; f++){
+            ws.c5.set(f, activation.apply(ws.c5Sums.get(f) * weights.c5Weights.get(f) + weights.c5Biases.get(f)));
+        }
+    }
+
+    /**
+     * Unrolls every 5x5 window of one map into a column of the output matrix. Row a*5+b of the
+     * output holds tap (a, b) of the window of every output pixel, in row-major pixel order
+     * @param matrices - the set of input maps
+     * @param m - the index of the map to unroll
+     * @param outputWidth - the number of window positions down the map
+     * @param outputHeight - the number of window positions across the map
+     * @param columns - the column matrix
+     * @param offset - the index in columns of the first row to write
+     */
+    static void im2col(Tensor matrices, int m, int outputWidth, int outputHeight, double[] columns, int offset){
+        double[] in = matrices.data();
+        int rowStride = matrices.stride(1);
+        int pixels = outputWidth*outputHeight;
+        for(int a = 0; a < LeNet5.filterWidth; a++){
+            for(int b = 0; b < LeNet5.filterHeight; b++){
+                int row = offset + (a*LeNet5.filterHeight + b)*pixels;
+                int source = matrices.offset(m, a, b);
+                for(int i = 0; i < outputWidth; i++){
+                    int target = row + i*outputHeight;
+                    for(int j = 0; j < outputHeight; j++){
+                        columns[target + j] = in[source + j];
+                    }
+                    source += rowStride;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Writes every observed layer to a directory without touching the screen, so it can be used
+ * on headless machines. Layers are written as grayscale PNGs, as raw big-endian doubles, or both.
+ *
+ * A PNG holds every feature map of the layer side by side, each scaled so its smallest value is
+ * black and its largest is white. A raw dump is the layer's activations in row-major order.
+ * Files are named sample-N-LAYER.png and sample-N-LAYER.raw.
+ */
+public class ImageDumpObserver implements LayerObserver {
+
+    private static final int MAP_GAP = 2;
+
+    private final File directory;
+    private final boolean png;
+    private final boolean raw;
+
+    /**
+     * @param directory - the directory to write into, created if it does not exist
+     * @param png - whether to write each layer as an image
+     * @param raw - whether to write each layer's raw activations
+     */
+    public ImageDumpObserver(File directory, boolean png, boolean raw) {
+        if(!directory.isDirectory() && !directory.mkdirs()){
+            throw new IllegalArgumentException("Cannot create " + directory);
+        }
+        this.directory = directory;
+        this.png = png;
+        this.raw = raw;
+    }
+
+    @Override
+    public void onLayer(long sample, String layer, Tensor activations) {
+        String name = "sample-" + sample + "-" + layer;
+        try{
+            if(png){
+                ImageIO.write(render(activations), "png", new File(directory, name + ".png"));
+            }
+            if(raw){
+                writeRaw(activations, new File(directory, name + ".raw"));
+            }
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Draws every map of the layer into one grayscale image, maps left to right
+     * @param activations - a rank 1, 2 or 3 Tensor
+     * @return the BufferedImage
+     */
+    public static BufferedImage render(Tensor activations) {
+        int maps = activations.rank() == 3 ? activations.size(0) : 1;
+        int rows = activations.rank() == 1 ? 1 : activations.size(activations.rank() - 2);
+        int columns = activations.size(activations.rank() - 1);
+        int mapSize = rows*columns;
+        double[] data = activations.data();
+        BufferedImage image = new BufferedImage(maps*(columns + MAP_GAP) - MAP_GAP, rows, BufferedImage.TYPE_BYTE_GRAY);
+
+        for(int m = 0; m < maps; m++){
+            int start = activations.offset() + m*mapSize;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for(int p = 0; p < mapSize; p++){
+                min = Math.min(min, data[start + p]);
+                max = Math.max(max, data[start + p]);
+            }
+            double scale = max > min ? 255/(max - min) : 0;
+            for(int r = 0; r < rows; r++){
+                for(int c = 0; c < columns; c++){
+                    int gray = (int)((data[start + r*columns + c] - min)*scale);
+                    image.getRaster().setSample(m*(columns + MAP_GAP) + c, r, 0, gray);
+                }
+            }
+        }
+        return image;
+    }
+
+    private static void writeRaw(Tensor activations, File file) throws IOException {
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))){
+            double[] data = activations.data();
+            for(int i = 0; i < activations.size(); i++){
+                out.writeDouble(data[activations.offset() + i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Serves classifications from a CompiledLeNet5 to other processes over TCP on localhost.
+ *
+ * The protocol is binary: a client sends the raw 28x28 pixels of an image, 784 bytes row by row
+ * as stored in the IDX file, and reads back one byte: the digit, BUSY if the server's queue was
+ * full, or ERROR if classifying the batch the image was in failed. A connection may send any
+ * number of images one after the other.
+ *
+ * Every connection is served by its own thread, a virtual thread when the JVM has them (Java
+ * 21+), otherwise a thread from a cached pool. A connection thread only parses and queues
+ * requests; one batching thread takes requests off a bounded queue, waits at most the batch
+ * window after the oldest one arrived for more to coalesce with it, and classifies the batch
+ * across all cores. When the queue is full new requests are answered BUSY at once, so a
+ * client that sends faster than the model can classify is pushed back rather than queued
+ * without bound. A connection has one request in flight at a time, so it reuses a single
+ * Request, image buffer included, for every image it sends.
+ */
+public class InferenceServer implements AutoCloseable {
+
+    /**
+     * The reply to a request that found the queue full
+     */
+    public static final int BUSY = 0xFF;
+
+    /**
+     * The reply to a request whose batch could not be classified
+     */
+    public static final int ERROR = 0xFE;
+
+    /**
+     * The number of bytes in a request
+     */
+    public static final int requestSize = LeNet5.inputWidth*LeNet5.inputHeight;
+
+    private final CompiledLeNet5 model;
+    private final int maxBatch;
+    private final long batchWindow;
+    private final BlockingQueue<Request> queue;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = newPerTaskExecutor();
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+    private final Thread batcher;
+    private volatile boolean running = true;
+
+    //Metrics
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder served = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    /**
+     * One queued image and the connection thread waiting for its reply. Each connection reuses
+     * its Request once the previous reply has been written
+     */
+    private static final class Request {
+        final Tensor image = new Tensor(LeNet5.inputWidth, LeNet5.inputHeight);
+        final Semaphore answered = new Semaphore(0);
+        long arrived;
+        int reply;
+
+        /**
+         * Hands the reply to the waiting connection thread
+         * @param reply - the digit, or ERROR
+         */
+        void answer(int reply) {
+            this.reply = reply;
+            answered.release();
+        }
+    }
+
+    /**
+     * Opens the server socket on the loopback address and starts accepting connections
+     * @param model - the model to classify with
+     * @param port - the port to listen on, 0 for any free port
+     * @param maxBatch - the largest number of requests classified together
+     * @param batchWindowMicros - how long the oldest request in a batch may wait for others to join it
+     * @param queueCapacity - the most requests waiting to be batched before new ones are answered BUSY
+     * @throws IOException - if the port cannot be opened
+     */
+    public InferenceServer(CompiledLeNet5 model, int port, int maxBatch, long batchWindowMicros, int queueCapacity) throws IOException {
+        if(maxBatch < 1 || batchWindowMicros < 0 || queueCapacity < 1){
+            throw new IllegalArgumentException("maxBatch and queueCapacity must be positive and the batch window not negative");
+        }
+        this.model = model;
+        this.maxBatch = maxBatch;
+        this.batchWindow = TimeUnit.MICROSECONDS.toNanos(batchWindowMicros);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.serverSocket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+        this.batcher = new Thread(this::batch, "inference-batcher");
+        this.acceptor = new Thread(this::accept, "inference-acceptor");
+        batcher.start();
+        acceptor.start();
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return a summary of the requests served so far and their latency from arrival to reply
+     */
+    public String report() {
+        long batchCount = batches.sum();
+        return String.format("served %d, rejected %d, failed %d, mean batch %.1f, latency p50 %.0f us, p99 %.0f us, max %.0f us",
+                served.sum(), rejected.sum(), failed.sum(), batchCount == 0 ? 0 : (double)served.sum()/batchCount,
+                latency.percentile(0.5)/1e3, latency.percentile(0.99)/1e3, latency.max()/1e3);
+    }
+
+    /**
+     * Stops accepting connections, closes every open connection and stops the batching thread
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        for(Socket socket : sockets){
+            socket.close();
+        }
+        batcher.interrupt();
+        connections.shutdownNow();
+    }
+
+    /**
+     * Creates an executor that runs every task on a new virtual thread when the JVM supports
+     * them, looked up by reflection so the server still compiles and runs on Java 17, and
+     * otherwise on a cached pool of daemon threads
+     * @return the executor
+     */
+    static ExecutorService newPerTaskExecutor() {
+        try{
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }catch(ReflectiveOperationException e){
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Hands every new connection to its own thread until the server is closed
+     */
+    private void accept() {
+        while(running){
+            try{
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                sockets.add(socket);
+                connections.execute(() -> serve(socket));
+            }catch(IOException e){
+                if(running){
+                    System.err.println(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads requests from one connection and answers each, until the client closes it
+     */
+    private void serve(Socket socket) {
+        byte[] pixels = new byte[requestSize];
+        Request request = new Request();
+        try(socket){
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while(readRequest(in, pixels)){
+                request.arrived = System.nanoTime();
+                double[] data = request.image.data();
+                for(int p = 0; p < requestSize; p++){
+                    data[p] = (pixels[p] & 0xFF)/255.0;
+                }
+                if(!queue.offer(request)){
+                    rejected.increment();
+                    out.write(BUSY);
+                    continue;
+                }
+                request.answered.acquire();
+                out.write(request.reply);
+            }
+        }catch(SocketException e){
+            //The client or close() dropped the connection
+        }catch(IOException e){
+            System.err.println(e);
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }finally{
+            sockets.remove(socket);
+        }
+    }
+
+    /**
+     * Reads one request
+     * @return false if the client closed the connection before sending another image
+     */
+    private static boolean readRequest(DataInputStream in, byte[] pixels) throws IOException {
+        int first = in.read();
+        if(first < 0){
+            return false;
+        }
+        pixels[0] = (byte)first;
+        in.readFully(pixels, 1, requestSize - 1);
+        return true;
+    }
+
+    /**
+     * The batching thread: collects requests into batches and classifies them until interrupted
+     */
+    private void batch() {
+        List<Request> batch = new ArrayList<>(maxBatch);
+        try{
+            while(running){
+                Request first = queue.take();
+                batch.add(first);
+                long deadline = first.arrived + batchWindow;
+                while(batch.size() < maxBatch){
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if(next == null){
+                        break;
+                    }
+                    batch.add(next);
+                }
+                try{
+                    classify(batch);
+                }catch(RuntimeException e){
+                    //Only this batch is lost: its clients are answered ERROR and batching goes on
+                    System.err.println(e);
+                    fail(batch);
+                }
+                batch.clear();
+            }
+        }catch(InterruptedException e){
+            //close() stops the batcher; fail whatever it was holding so no connection waits forever
+            fail(batch);
+        }
+    }
+
+    /**
+     * Answers every request in a batch that could not be classified with ERROR
+     */
+    private void fail(List<Request> batch) {
+        for(Request request : batch){
+            request.answer(ERROR);
+        }
+        failed.add(batch.size());
+    }
+
+    /**
+     * Classifies a batch, splitting it across all available cores, and answers every request in it
+     */
+    private void classify(List<Request> batch) {
+        int[] predictions = new int[batch.size()];
+        IntStream.range(0, batch.size()).parallel().forEach(i -> predictions[i] = model.predict(batch.get(i).image));
+        long now = System.nanoTime();
+        for(int i = 0; i < predictions.length; i++){
+            Request request = batch.get(i);
+            latency.record(now - request.arrived);
+            request.answer(predictions[i]);
+        }
+        served.add(batch.size());
+        batches.increment();
+    }
+
+    /**
+     * Main method. Serves until killed, printing the metrics every 10 seconds while requests arrive
+     * Usage: InferenceServer [checkpoint] [port] [max batch] [batch window in us] [queue capacity]
+     * (without a checkpoint a network is trained for one epoch)
+     * @param args - String[]
+     */
+    public static void main(String[] args){
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 5313;
+        int maxBatch = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        long window = args.length > 3 ? Long.parseLong(args[3]) : 2000;
+        int capacity = args.length > 4 ? Integer.parseInt(args[4]) : 1024;
+        LeNet5 net = new LeNet5();
+        try{
+            if(args.length > 0){
+                net.loadCheckpoint(args[0]);
+            }else{
+                net.initNetwork(MnistDataset.loadTrainingSet());
+                net.trainNetwork(1);
+            }
+        }catch(IOException e){
+            System.err.println(e);
+            return;
+        }
+
+        try(InferenceServer server = new InferenceServer(net.compile(), port, maxBatch, window, capacity)){
+            System.out.printf("Serving on %s:%d, batches of up to %d within %d us, queue of %d%n",
+                    InetAddress.getLoopbackAddress().getHostAddress(), server.port(), maxBatch, window, capacity);
+            long reported = 0;
+            while(true){
+                Thread.sleep(10_000);
+                long total = server.served.sum() + server.rejected.sum() + server.failed.sum();
+                if(total != reported){
+                    System.out.println(server.report());
+                    reported = total;
+                }
+            }
+        }catch(IOException e){
+            System.err.println(e);
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * The inner loops of the dense layers and convolutions. SELECTED is chosen once at startup:
+ * the Vector API implementation when the jdk.incubator.vector module has been added to the
+ * JVM (java --add-modules jdk.incubator.vector) and its preferred species holds at least two
+ * doubles, otherwise the scalar implementation. The system property cnnet.kernels=scalar
+ * forces the scalar implementation, and cnnet.kernels=vector forces the Vector API whatever
+ * its width.
+ */
+public interface Kernels {
+
+    /**
+     * The implementation used by the network
+     */
+    Kernels SELECTED = Selection.select();
+
+    /**
+     * @return the dot product of a[aOffset .. aOffset+length) and b[bOffset .. bOffset+length)
+     */
+    double dot(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+    /**
+     * y[yOffset + i] += alpha * x[xOffset + i] for every i below length
+     */
+    void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+    /**
+     * Computes one row of a valid 5x5 convolution:
+     * output[outputOffset + j] = sum over a, b of filter[filterOffset + 5a + b] * input[inputOffset + a*rowStride + j + b]
+     * @param input - the array holding the filtered matrix
+     * @param inputOffset - the index in input of the top left of the first window
+     * @param rowStride - the distance between rows of the filtered matrix
+     * @param filter - the array holding the 5x5 filter
+     * @param filterOffset - the index in filter of the filter
+     * @param output - the array the row is written to
+     * @param outputOffset - the index in output of the first pixel of the row
+     * @param width - the number of pixels in the row
+     */
+    void convolveRow(double[] input, int inputOffset, int rowStride, double[] filter, int filterOffset,
+                     double[] output, int outputOffset, int width);
+
+    /**
+     * The single precision dot(), for FloatLeNet5
+     */
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * The single precision axpy(), for FloatLeNet5
+     */
+    void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length);
+
+    /**
+     * The single precision convolveRow(), for FloatLeNet5
+     */
+    void convolveRow(float[] input, int inputOffset, int rowStride, float[] filter, int filterOffset,
+                     float[] output, int outputOffset, int width);
+
+    /**
+     * The int8 convolveRow(), for QuantizedLeNet5. The products are added onto int32 sums in
+     * output rather than overwriting them, so the rows of several input maps can be summed
+     */
+    void convolveRowAdd(byte[] input, int inputOffset, int rowStride, byte[] filter, int filterOffset,
+                        int[] output, int outputOffset, int width);
+
+    /**
+     * The int8 dot(), for QuantizedLeNet5, summed in int32
+     */
+    int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length);
+
+    /**
+     * @return the number of doubles processed per instruction
+     */
+    int lanes();
+
+    /**
+     * @return a short description of the implementation
+     */
+    String name();
+
+    /**
+     * Picks the implementation for SELECTED
+     */
+    final class Selection {
+
+        private Selection() {
+        }
+
+        static Kernels select() {
+            String choice = System.getProperty("cnnet.kernels", "auto");
+            if(!choice.equals("scalar") && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()){
+                try{
+                    //Loaded by name so this class links without the incubator module
+                    Kernels vector = (Kernels)Class.forName("VectorApiKernels").getDeclaredConstructor().newInstance();
+                    if(vector.lanes() >= 2 || choice.equals("vector")){
+                        return vector;
+                    }
+                }catch(ReflectiveOperationException | LinkageError e){
+                    System.err.println("Vector API kernels unavailable, using scalar kernels: " + e);
+                }
+            }else if(choice.equals("vector")){
+                System.err.println("cnnet.kernels=vector needs --add-modules jdk.incubator.vector, using scalar kernels");
+            }
+            return new ScalarKernels();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations in nanoseconds that any number of threads can record into.
+ *
+ * Durations are counted in log-linear buckets: every power of two is split into 8 equal
+ * buckets, so a reported percentile is never more than 12.5% above the true value, and
+ * recording is a few shifts and one atomic increment.
+ */
+public class LatencyHistogram {
+
+    private static final int subBuckets = 8;
+    private static final int subBucketBits = 3;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(bucket(Long.MAX_VALUE) + 1);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param nanos - a duration, negative durations are counted as 0
+     */
+    public void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        buckets.incrementAndGet(bucket(nanos));
+        count.increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * @return the number of durations recorded
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * @return the mean duration in nanoseconds, 0 if nothing was recorded
+     */
+    public double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double)total.sum()/n;
+    }
+
+    /**
+     * @return the longest duration recorded in nanoseconds
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * @param quantile - between 0 and 1, e.g. 0.99
+     * @return the upper bound of the bucket holding the given quantile, in nanoseconds
+     */
+    public long percentile(double quantile) {
+        long n = count.sum();
+        if(n == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(quantile*n));
+        long seen = 0;
+        for(int b = 0; b < buckets.length(); b++){
+            seen += buckets.get(b);
+            if(seen >= rank){
+                return Math.min(upperBound(b), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Adds every duration recorded by another histogram to this one
+     * @param other - LatencyHistogram
+     */
+    public void merge(LatencyHistogram other) {
+        for(int b = 0; b < buckets.length(); b++){
+            long n = other.buckets.get(b);
+            if(n != 0){
+                buckets.addAndGet(b, n);
+            }
+        }
+        count.add(other.count.sum());
+        total.add(other.total.sum());
+        max.accumulate(other.max.get());
+    }
+
+    /**
+     * Forgets every recorded duration
+     */
+    public void reset() {
+        for(int b = 0; b < buckets.length(); b++){
+            buckets.set(b, 0);
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    /**
+     * Durations below subBuckets get a bucket each, above that each power of two gets subBuckets buckets
+     */
+    private static int bucket(long nanos) {
+        if(nanos < subBuckets){
+            return (int)nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int)(nanos >>> (exponent - subBucketBits)) & (subBuckets - 1);
+        return (exponent - subBucketBits + 1)*subBuckets + sub;
+    }
+
+    /**
+     * @return the largest duration that falls in the given bucket
+     */
+    private static long upperBound(int bucket) {
+        if(bucket < subBuckets){
+            return bucket;
+        }
+        int exponent = bucket/subBuckets + subBucketBits - 1;
+        long sub = bucket % subBuckets;
+        return ((subBuckets + sub + 1) << (exponent - subBucketBits)) - 1;
+    }
+}
@@ -0,0 +1,28 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A Flight Recorder event for one stage of one sample's pass through the network
+ */
+@Name("cnnet.Layer")
+@Label("LeNet5 Layer")
+@Category("LeNet5")
+@Description("The time one sample spent in one layer of the network")
+@StackTrace(false)
+class LayerEvent extends jdk.jfr.Event {
+
+    @Label("Layer")
+    String layer;
+
+    @Label("Training")
+    @Description("Whether the sample was being trained on rather than classified")
+    boolean training;
+
+    @Label("Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long time;
+}
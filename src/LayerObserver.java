@@ -0,0 +1,24 @@
+/**
+ * Receives the activations of each layer of the network as a sample is fed forward.
+ * Observers are only called for the samples the network is told to observe, so a training
+ * run with the default NONE observer does no visualization work at all.
+ *
+ * The activations tensor is the network's own buffer and is only valid for the duration of
+ * the call: observers must copy anything they want to keep. During data-parallel training
+ * onLayer is called from the training pool's worker threads.
+ */
+public interface LayerObserver {
+
+    /**
+     * An observer that ignores every layer
+     */
+    LayerObserver NONE = (sample, layer, activations) -> {};
+
+    /**
+     * Called once per layer, in order, for each observed sample
+     * @param sample - the number of samples the network had processed before this one
+     * @param layer - the name of the layer: Input, C1, S2, C3, S4, C5, F6 or Output
+     * @param activations - the layer's output, rank 1 for C5 onwards and rank 2 or 3 before that
+     */
+    void onLayer(long sample, String layer, Tensor activations);
+}
@@ -1,95 +1,327 @@
-import javax.swing.*;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
 
 public class LeNet5 {
 
     //Programmer-defined constants
-    private final double tanAmplitude = 1.7159;
-    private final double tanOriginSlope = (2/3.0);
     private double trainingSetSize = 0;
-    private final double learningRate = 0.1;
-    private int inputSize = 28*28; 	// Fixed for now.
-    private double inputs[][][];
-    private double desiredOutputs[]; // Single desired output
-    private final int filterWidth = 5; // Filter width for all convolution layers
-    private final int filterHeight = 5; // Filter height for all convolution layers
-    private final int c1Size = 6;
-    private final int c1Width = 28;
-    private final int c1Height = 28;
-    private final int s2Size = 6;
-    private final int s2Width = 14;
-    private final int s2Height = 14;
-    private final int c3Size = 16;
-    private final int c3FilterNum = 60;
-    private final int c3Width = 10;
-    private final int c3Height = 10;
-    private final int s4Size = 16;
-    private final int c5Size = 120;
-    private final int f6Size = 84;
-    private final int outputSize = 10;
-
-    //Weight Matrices
-    private double[][][] c1Filters;
-    private double[] c1Biases;
-    private double[] s2Weights;
-    private double[] s2Biases;
-    private double[][][] c3Filters;
-    private double[] c3Biases;
-    private double[] s4Weights;
-    private double[] s4Biases;
-    private double[][][] c5Filters;
-    private double[] c5Weights;
-    private double[] c5Biases;
-    private double[][] f6Weights;
-    private double[] f6Biases;
-    private double[][] outputWeights;
-
-    /**
-     * Initializes the network on the given inputs and desired outputs
-     * @param inputs - double[][][]
-     * @param desiredOutputs - double[]
-     */
-    public void initNetwork(double[][][] inputs, double[] desiredOutputs) {
+    private double learningRate = 0.1;
+    private Optimizer optimizer = new GradientDescent();
+    private int batchSize = 32;
+    private int loaderThreads = 2;
+    private int prefetchBatches = 4;
+    private long shuffleSeed = 313;
+    private long weightSeed = 313;
+    private WeightInitialization initialization = WeightInitialization.UNIT_VARIANCE;
+    private int trainingThreads = 0;	// 0 trains with per-sample SGD on the calling thread
+    private boolean hogwild = false;
+    private boolean stripedUpdates = false;
+    private LayerObserver observer = LayerObserver.NONE;
+    private int observeEvery = 1000;
+    private long samplesSeen = 0;
+    private final Workspace trainingWorkspace = new Workspace();
+    private final ThreadLocal<Workspace> inferenceWorkspaces = ThreadLocal.withInitial(Workspace::new);
+    private ConvolutionEngine convolutionEngine = ConvolutionEngine.DIRECT;
+    private Activation activation = Activation.FAST;
+    private Kernels kernels = Kernels.SELECTED;
+    private Telemetry telemetry = null;
+    private MnistDataset trainingSet;
+    private MnistDataset evaluationSet;
+    static final int filterWidth = 5; // Filter width for all convolution layers
+    static final int filterHeight = 5; // Filter height for all convolution layers
+    static final int inputWidth = 28;
+    static final int inputHeight = 28;
+    static final int c1Size = 6;
+    static final int c1Width = 28;
+    static final int c1Height = 28;
+    static final int s2Size = 6;
+    static final int s2Width = 14;
+    static final int s2Height = 14;
+    static final int c3Size = 16;
+    static final int c3FilterNum = 60;
+    static final int c3Width = 10;
+    static final int c3Height = 10;
+    static final int s4Size = 16;
+    static final int s4Width = 5;
+    static final int s4Height = 5;
+    static final int c5Size = 120;
+    static final int f6Size = 84;
+    static final int outputSize = 10;
+    static final long defaultWeightSeed = 313;
+    private static final int initializationChunk = 4096; // Weights drawn from each random stream
+
+    //Weight Matrices, all stored in one contiguous buffer
+    private Weights weights;
+
+    /**
+     * Initializes the network on the given set of labelled images
+     * @param trainingSet - MnistDataset
+     */
+    public void initNetwork(MnistDataset trainingSet) {
         //Initialize the inputs and desired outputs
-        this.inputs = inputs;
-        this.trainingSetSize = inputs.length;
+        this.trainingSet = trainingSet;
+        this.trainingSetSize = trainingSet.size();
         if (this.trainingSetSize == 0) {
             System.out.println("No training data.");
             System.exit(0);
         }
-        this.desiredOutputs = desiredOutputs;
 
         //Initialize all of the network's trainable parameters
-        this.c1Filters = new double[c1Size][filterWidth][filterHeight];
-        this.c1Biases = new double[c1Size];
-        this.s2Weights = new double[s2Size];
-        this.s2Biases = new double[s2Size];
-        this.c3Filters = new double[c3FilterNum][filterWidth][filterHeight];
-        this.c3Biases = new double[c3Size];
-        this.s4Weights = new double[s4Size];
-        this.s4Biases = new double[s4Size];
-        this.c5Filters = new double[c5Size][filterWidth][filterHeight];
-        this.c5Weights = new double[c5Size];
-        this.c5Biases = new double[c5Size];
-        this.f6Weights = new double[f6Size][c5Size];
-        this.f6Biases = new double[f6Size];
-        this.outputWeights = new double[outputSize][f6Size];
-
-        //Initialize weights
-        //TODO: Uncomment for milestone 2
-//        initializeWeights(this.c1Filters, inputSize);
-//        initializeWeights(this.c1Biases, inputSize);
-//        initializeWeights(this.s2Weights, c1Width*c1Height);
-//        initializeWeights(this.s2Biases, c1Size);
-//        initializeWeights(this.c3Filters, s2Width*s2Height);
-//        initializeWeights(this.c3Biases, s2Size);
-//        initializeWeights(this.s4Weights, c3Width*c3Height);
-//        initializeWeights(this.s4Biases, c3Size);
-//        initializeWeights(this.c5Filters, s4Width*s4Height);
-//        initializeWeights(this.c5Weights, s4Size);
-//        initializeWeights(this.c5Biases, s4Size);
-//        initializeWeights(this.f6Weights, c5Size);
-//        initializeWeights(this.f6Biases, c5Size);
-//        initializeOutputWeights(this.outputWeights);
+        this.weights = new Weights();
+        initializeWeights(weights, initialization, weightSeed);
+    }
+
+    /**
+     * Initializes a set of parameters the way initNetwork() does with the default initialization and seed
+     * @param weights - the parameters to initialize
+     */
+    static void initializeWeights(Weights weights) {
+        initializeWeights(weights, WeightInitialization.UNIT_VARIANCE, defaultWeightSeed);
+    }
+
+    /**
+     * Sets every parameter to a uniform random value in the range the initialization gives for
+     * Fi, the fan-in of the node using it. Every tensor is cut into chunks that each draw from
+     * their own SplittableRandom stream, split off in a fixed order before the chunks are filled
+     * in parallel, so the weights depend only on the seed and never on the number of threads
+     * @param weights - the parameters to initialize
+     * @param initialization - the rule giving the range of each parameter
+     * @param seed - the seed every stream is split from
+     */
+    static void initializeWeights(Weights weights, WeightInitialization initialization, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<Runnable> chunks = new ArrayList<>();
+        //Fi is the number of inputs feeding each node that uses the weight, shared by every weight
+        //and bias of that node
+        initializeWeights(weights.c1Filters, filterWidth*filterHeight, initialization, random, chunks);
+        initializeWeights(weights.c1Biases, filterWidth*filterHeight, initialization, random, chunks);
+        initializeWeights(weights.s2Weights, 2*2, initialization, random, chunks);
+        initializeWeights(weights.s2Biases, 2*2, initialization, random, chunks);
+        for(int f = 0; f < c3Size; f++){
+            //Each C3 map reads 3, 4 or 6 S2 maps, see C3Connections
+            int inputs = C3Connections.inputs[f].length;
+            Tensor filters = new Tensor(weights.c3Filters.data(), weights.c3Filters.offset(C3Connections.firstFilter[f]),
+                    inputs, filterWidth, filterHeight);
+            initializeWeights(filters, inputs*filterWidth*filterHeight, initialization, random, chunks);
+            initializeWeights(new Tensor(weights.c3Biases.data(), weights.c3Biases.offset(f), 1),
+                    inputs*filterWidth*filterHeight, initialization, random, chunks);
+        }
+        initializeWeights(weights.s4Weights, 2*2, initialization, random, chunks);
+        initializeWeights(weights.s4Biases, 2*2, initialization, random, chunks);
+        //Every C5 node applies its filter to all 16 S4 maps
+        initializeWeights(weights.c5Filters, s4Size*filterWidth*filterHeight, initialization, random, chunks);
+        initializeWeights(weights.c5Weights, s4Size*filterWidth*filterHeight, initialization, random, chunks);
+        initializeWeights(weights.c5Biases, s4Size*filterWidth*filterHeight, initialization, random, chunks);
+        initializeWeights(weights.f6Weights, c5Size, initialization, random, chunks);
+        initializeWeights(weights.f6Biases, c5Size, initialization, random, chunks);
+        initializeWeights(weights.outputWeights, f6Size, initialization, random, chunks);
+        chunks.parallelStream().forEach(Runnable::run);
+    }
+
+    /**
+     * @return the network's weights, trained in place
+     */
+    public Weights weights() {
+        return weights;
+    }
+
+    /**
+     * Exports the trained network as an immutable inference-only model with the pooling and C5
+     * scales folded into the neighbouring filters, see CompiledLeNet5. Later training does not
+     * change the exported model
+     * @return the CompiledLeNet5
+     */
+    public CompiledLeNet5 compile() {
+        return new CompiledLeNet5(weights, activation);
+    }
+
+    /**
+     * Creates a network with this one's activation function, kernels, convolution engine and
+     * learning rate, holding a copy of its weights. The copy trains without affecting this
+     * network; it has no training set and trains with plain gradient descent
+     * @return the copy
+     */
+    public LeNet5 copy() {
+        LeNet5 copy = new LeNet5();
+        copy.weights = new Weights();
+        System.arraycopy(weights.data(), 0, copy.weights.data(), 0, weights.size());
+        copy.learningRate = learningRate;
+        copy.activation = activation;
+        copy.kernels = kernels;
+        copy.convolutionEngine = convolutionEngine;
+        return copy;
+    }
+
+    /**
+     * Atomically saves the network's weights to a checkpoint file
+     * @param filepath - String
+     * @throws IOException if the file cannot be written
+     */
+    public void saveCheckpoint(String filepath) throws IOException {
+        Checkpoint.save(weights, filepath);
+    }
+
+    /**
+     * Replaces the network's weights with those in a checkpoint file. Call initNetwork() first to
+     * continue training from the checkpoint; the network can classify images without it
+     * @param filepath - String
+     * @throws IOException if the file cannot be read or is not a valid checkpoint
+     */
+    public void loadCheckpoint(String filepath) throws IOException {
+        this.weights = Checkpoint.load(filepath);
+    }
+
+    /**
+     * Sets how many samples the training loop takes from the data pipeline at a time
+     * @param batchSize - int
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets how many background threads shuffle, normalize and encode training batches
+     * @param loaderThreads - int
+     */
+    public void setLoaderThreads(int loaderThreads) {
+        this.loaderThreads = loaderThreads;
+    }
+
+    /**
+     * Sets the observer the activations of every layer are passed to while training.
+     * Only one sample in every observeEvery is observed
+     * @param observer - LayerObserver, LayerObserver.NONE to observe nothing
+     * @param observeEvery - int
+     */
+    public void setObserver(LayerObserver observer, int observeEvery) {
+        if(observeEvery < 1){
+            throw new IllegalArgumentException("observeEvery must be positive");
+        }
+        this.observer = observer;
+        this.observeEvery = observeEvery;
+    }
+
+    /**
+     * Sets how far each weight update moves the weights against their gradient
+     * @param learningRate - double, 0.1 by default
+     */
+    public void setLearningRate(double learningRate) {
+        this.learningRate = learningRate;
+    }
+
+    /**
+     * Sets a labelled data set the network is tested on after every training epoch, with its
+     * accuracy printed alongside the time the test took as a fraction of the epoch
+     * @param evaluationSet - MnistDataset, or null to test nothing while training
+     */
+    public void setEvaluationSet(MnistDataset evaluationSet) {
+        this.evaluationSet = evaluationSet;
+    }
+
+    /**
+     * Sets how the gradients of each training step change the weights
+     * @param optimizer - a GradientDescent (the default), Momentum or DiagonalLevenbergMarquardt
+     */
+    public void setOptimizer(Optimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    /**
+     * Sets how training is parallelized. With 0 threads, the default, trainNetwork updates the
+     * weights after every sample on the calling thread. With 1 or more it updates them once per
+     * mini-batch: the batch is split into that many slices, each backpropagated by a ForkJoinPool
+     * worker into its own gradients, and the gradients are summed pairwise up a fixed tree before
+     * one update with their mean. The slices and the order of every sum depend only on the thread
+     * count and batch size, so a given thread count always trains the same weights.
+     * Averaging over a batch makes each step smaller, so a larger learning rate is usually wanted
+     * @param trainingThreads - int, 0 or more
+     */
+    public void setTrainingThreads(int trainingThreads) {
+        if(trainingThreads < 0){
+            throw new IllegalArgumentException("trainingThreads must not be negative");
+        }
+        this.trainingThreads = trainingThreads;
+    }
+
+    /**
+     * Switches the training threads to Hogwild asynchronous SGD. Each of the trainingThreads
+     * workers streams its own shard of the training set, reshuffled every epoch, and after every
+     * sample writes its update straight into the shared weights without any locking, so workers
+     * read and overwrite each other's updates. Runs are therefore not repeatable. Only the ends of
+     * epochs are synchronized
+     * @param hogwild - whether to train asynchronously; has no effect with 0 training threads
+     * @param striped - whether each worker applies its update starting from a different layer, so
+     *                workers updating at the same moment mostly write different cache lines
+     */
+    public void setHogwild(boolean hogwild, boolean striped) {
+        this.hogwild = hogwild;
+        this.stripedUpdates = striped;
+    }
+
+    /**
+     * Sets the seed initNetwork() draws the starting weights from. Two networks initialized with
+     * the same seed start from exactly the same weights
+     * @param weightSeed - long
+     */
+    public void setWeightSeed(long weightSeed) {
+        this.weightSeed = weightSeed;
+    }
+
+    /**
+     * Sets the rule initNetwork() draws the starting weights with
+     * @param initialization - WeightInitialization.UNIT_VARIANCE (the default) or WeightInitialization.LECUN
+     */
+    public void setWeightInitialization(WeightInitialization initialization) {
+        this.initialization = initialization;
+    }
+
+    /**
+     * Sets the seed the order of the training samples in each epoch is derived from
+     * @param shuffleSeed - long
+     */
+    public void setShuffleSeed(long shuffleSeed) {
+        this.shuffleSeed = shuffleSeed;
+    }
+
+    /**
+     * Sets the engine used to compute the C1, C3 and C5 convolutions
+     * @param convolutionEngine - ConvolutionEngine.DIRECT or an Im2colConvolution
+     */
+    public void setConvolutionEngine(ConvolutionEngine convolutionEngine) {
+        this.convolutionEngine = convolutionEngine;
+    }
+
+    /**
+     * Sets how the activation function of the convolution layers is computed
+     * @param activation - Activation.FAST (the default) or Activation.EXACT
+     */
+    public void setActivation(Activation activation) {
+        this.activation = activation;
+    }
+
+    /**
+     * Sets the kernels the dense layers are computed with
+     * @param kernels - Kernels.SELECTED (the default), a ScalarKernels or a VectorApiKernels
+     */
+    public void setKernels(Kernels kernels) {
+        this.kernels = kernels;
+    }
+
+    /**
+     * Sets where the time spent in each layer and the results of each epoch are recorded.
+     * Nothing is measured while no telemetry is set
+     * @param telemetry - Telemetry, or null to stop measuring
+     */
+    public void setTelemetry(Telemetry telemetry) {
+        this.telemetry = telemetry;
     }
 
     /**
@@ -102,218 +334,641 @@ public class LeNet5 {
      * @param epochs - int
      */
     public void trainNetwork(int epochs){
-        for(int e = 0; e < epochs; e++){
-//            for (int t = 0; t < trainingSetSize; t++) {
-                int t = 0;
-                //TODO: Delete for milestone 2
-                initializeTestWeightsSimple();
-
-                //Translate the desired output digit into a binary-encoded array
-                double[] binaryDesiredOutput = binaryEncodeSolution(desiredOutputs[t]);
-                displayImage(inputs[0], 28, "Input");
-
-
-                //C1: Padded convolution of the input from a 32 x 32 to 28 x 28 using 5 x 5 filter with 1-bit stride
-                double[][][] c1 = new double[c1Size][c1Width][c1Height];
-                for(int f = 0; f < c1Filters.length; f++) {
-                    c1[f] = convolvePadded(inputs[t], c1Filters[f], c1Biases[f], c1Width, c1Height);
-                }
-                displayImage(c1[0], 28, "C1");
-
-
-                //S2: Pooling of the 6 matrices form C1 into 14x14 matrices using 6 2x2 filters with 2-bit stride
-                double[][][] s2 = pool(c1, s2Weights, s2Biases, 2, 2, 2);
-                displayImage(s2[0], 14, "S2");
-
-                //C3: Convolution of the 6 matrices in S2 into 16 10x10 matrices using 120 5x5 filters with 2-bit stride
-                /*
-                 * S2 Output:   0 1 2 3 4 5 6 7 8 9 10 11 12 13 14 15
-                 * # of filters
-                 * applied:
-                 *              0 X       X X X     X X  X  X     X  X
-                 *              1 X X       X X X     X  X  X  X     X
-                 *              2 X X X       X X X      X     X  X  X
-                 *              3   X X X     X X X X       X     X  X
-                 *              4     X X X     X X X X     X  X     X
-                 *              5       X X X     X X X  X     X  X  X
-                 */
-                double[][][] c3 = new double[c3Size][c3Width][c3Height];
-                int filter = 0;
-                //First 6 filters (0..5)
-                for(int f = 0; f < 6; f++){
-                    for(int i = 0; i < c3Width; i++){
-                        for(int j = 0; j < c3Height; j++){
-                            c3[f][i][j] = tanh(convolvePixel(s2[f%s2Size], c3Filters[filter], i, j)
-                                    + convolvePixel(s2[(f+1)%s2Size], c3Filters[filter+1], i, j)
-                                    + convolvePixel(s2[(f+2)%s2Size], c3Filters[filter+2], i, j)
-                                    + c3Biases[f]);
-                        }
-                    }
-                    filter += 3;
-                }
-                //Next 9 Filters (6..11)
-                for(int f = 6; f < 12; f++){
-                    for(int i = 0; i < c3Width; i++){
-                        for(int j = 0; j < c3Height; j++){
-                            c3[f][i][j] = tanh(convolvePixel(s2[(f-6)%s2Size], c3Filters[filter], i, j)
-                                    + convolvePixel(s2[(f-5)%s2Size], c3Filters[filter+1], i, j)
-                                    + convolvePixel(s2[(f-4)%s2Size], c3Filters[filter+2], i, j)
-                                    + convolvePixel(s2[(f-3)%s2Size], c3Filters[filter+3], i, j)
-                                    + c3Biases[f]);
+        if(hogwild && trainingThreads > 0){
+            trainHogwild(epochs);
+            System.out.println("\nDone training.");
+            return;
+        }
+        ForkJoinPool pool = trainingThreads > 0 ? new ForkJoinPool(trainingThreads) : null;
+        Workspace[] workers = new Workspace[trainingThreads];
+        for(int w = 0; w < workers.length; w++){
+            workers[w] = new Workspace();
+        }
+        double[] sliceErrors = new double[trainingThreads];
+        int[] sliceCorrect = new int[trainingThreads];
+        try(BatchPipeline pipeline = new BatchPipeline(trainingSet, batchSize, loaderThreads, prefetchBatches, epochs, shuffleSeed)){
+            for(int e = 0; e < epochs; e++){
+                Telemetry telemetry = this.telemetry;
+                EpochEvent epochEvent = telemetry != null ? telemetry.epochStarted() : null;
+                long epochStart = System.nanoTime();
+                optimizer.epochStarted(this);
+                double epochError = 0;
+                int correct = 0;
+                for(int b = 0; b < pipeline.batchesPerEpoch(); b++){
+                    MiniBatch batch = pipeline.take();
+                    if(pool != null){
+                        //Synchronous data parallelism: one update per batch from every worker's gradients
+                        int slices = Math.min(trainingThreads, batch.size());
+                        pool.invoke(new BatchSlices(workers, batch, samplesSeen, 0, slices, sliceErrors, sliceCorrect));
+                        for(int s = 0; s < slices; s++){
+                            epochError += sliceErrors[s];
+                            correct += sliceCorrect[s];
                         }
+                        samplesSeen += batch.size();
+                        update(workers[0].gradients, batch.size());
+                        pipeline.release(batch);
+                        continue;
                     }
-                    filter += 4;
-                }
-                //Next 3 Filters (12..14)
-                for(int f = 12; f < 15; f++){
-                    for(int i = 0; i < c3Width; i++){
-                        for(int j = 0; j < c3Height; j++){
-                            c3[f][i][j] = tanh(convolvePixel(s2[(f-12)%s2Size], c3Filters[filter+1], i, j)
-                                    + convolvePixel(s2[(f-11)%s2Size], c3Filters[filter+2], i, j)
-                                    + convolvePixel(s2[(f-9)%s2Size], c3Filters[filter+3], i, j)
-                                    + convolvePixel(s2[(f-8)%s2Size], c3Filters[filter+4], i, j)
-                                    + c3Biases[f]);
+                    for(int t = 0; t < batch.size(); t++){
+                        boolean observed = observer != LayerObserver.NONE && samplesSeen % observeEvery == 0;
+                        Tensor output = forward(trainingWorkspace, batch.image(t), samplesSeen, observed ? observer : null, true);
+                        samplesSeen++;
+                        if(argmax(output) == batch.label(t)){
+                            correct++;
                         }
+                        //Stochastic gradient descent: the weights are updated after every sample
+                        long backwardStart = telemetry != null ? System.nanoTime() : 0;
+                        clear(trainingWorkspace.gradients);
+                        epochError += backward(trainingWorkspace, batch.target(t));
+                        if(telemetry != null) telemetry.record(Telemetry.Stage.BACKWARD, backwardStart, true);
+                        update(trainingWorkspace.gradients, 1);
                     }
-                    filter += 4;
+                    pipeline.release(batch);
                 }
-                //Last Filter (15)
-                for(int i = 0; i < c3Width; i++){
-                    for(int j = 0; j < c3Height; j++){
-                        for(int f = 0; f < 6; f++){
-                            c3[15][i][j] += convolvePixel(s2[f], c3Filters[filter+f], i, j) + c3Biases[f];
-                        }
-                        c3[15][i][j] = tanh(c3[15][i][j]);
-                    }
+                System.out.printf("Epoch %d completed. Mean error: %.4f, training accuracy: %.2f%%%n",
+                        e+1, epochError/trainingSetSize, 100.0*correct/trainingSetSize);
+                if(telemetry != null){
+                    telemetry.epochCompleted(epochEvent, e+1, (long)trainingSetSize, System.nanoTime() - epochStart,
+                            epochError/trainingSetSize, correct/trainingSetSize);
                 }
-                displayImage(c3[0], 10, "C3");
+                evaluateEpoch(e+1, System.nanoTime() - epochStart);
+            }
+        }finally{
+            if(pool != null){
+                pool.shutdown();
+            }
+        }
 
-                //S4: Pooling of the 16 matrices from C3 into 16 5x5 matrices using 2x2 filters with 2-bit stride
-                double[][][] s4 = pool(c3, s4Weights, s4Biases, 2, 2, 2);
-                displayImage(s4[0], 5, "S4");
+        System.out.println("\nDone training.");
+    }
 
-                //C5: Convolution of 16 matrices from S4 into a single 120-node array using 16 5x5 filters and 120 additional weights
-                double[] c5 = new double[c5Size];
-                for(int f = 0; f < c5Size; f++){
-                    for(int s = 0; s < s4Size; s++){
-                        c5[f] += convolvePixel(s4[s], c5Filters[f], 0, 0);
-                    }
-                    c5[f] = tanh(c5[f] * c5Weights[f] + c5Biases[f]);
+    /**
+     * Trains on a batch of newly labelled samples with per-sample SGD, in batch order, on the
+     * calling thread. Unlike trainNetwork() it needs no training set, so a network can keep
+     * learning from samples as they arrive, see OnlineLearner
+     * @param batch - the samples to learn from
+     * @return - the mean error of the samples, each measured before its own update
+     */
+    public double trainIncrement(MiniBatch batch){
+        double error = 0;
+        for(int t = 0; t < batch.size(); t++){
+            forward(trainingWorkspace, batch.image(t), samplesSeen++, null, true);
+            clear(trainingWorkspace.gradients);
+            error += backward(trainingWorkspace, batch.target(t));
+            update(trainingWorkspace.gradients, 1);
+        }
+        return batch.size() == 0 ? 0 : error/batch.size();
+    }
+
+    /**
+     * Feeds one sample forward and backpropagates its error, replacing the workspace's gradients
+     * with that sample's gradients, without changing the weights. Used by BackpropCheck
+     * @param ws - the workspace to compute in
+     * @param image - the normalized 28x28 image
+     * @param target - the one-hot encoded desired output
+     * @return - the error of the sample
+     */
+    double computeGradients(Workspace ws, Tensor image, Tensor target){
+        forward(ws, image, 0, null, true);
+        clear(ws.gradients);
+        return backward(ws, target);
+    }
+
+    /**
+     * Trains with Hogwild asynchronous SGD, see setHogwild()
+     * @param epochs - int
+     */
+    private void trainHogwild(int epochs){
+        ForkJoinPool pool = new ForkJoinPool(trainingThreads);
+        HogwildShard[] shards = new HogwildShard[trainingThreads];
+        for(int w = 0; w < shards.length; w++){
+            shards[w] = new HogwildShard(w, shards.length);
+        }
+        try{
+            for(int e = 0; e < epochs; e++){
+                Telemetry telemetry = this.telemetry;
+                EpochEvent epochEvent = telemetry != null ? telemetry.epochStarted() : null;
+                long epochStart = System.nanoTime();
+                optimizer.epochStarted(this);
+                for(HogwildShard shard : shards){
+                    shard.reinitialize();
+                    shard.epoch = e;
+                }
+                pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(shards)));
+                double epochError = 0;
+                int correct = 0;
+                for(HogwildShard shard : shards){
+                    epochError += shard.error;
+                    correct += shard.correct;
+                }
+                samplesSeen += trainingSet.size();
+                System.out.printf("Epoch %d completed. Mean error: %.4f, training accuracy: %.2f%%%n",
+                        e+1, epochError/trainingSetSize, 100.0*correct/trainingSetSize);
+                if(telemetry != null){
+                    telemetry.epochCompleted(epochEvent, e+1, (long)trainingSetSize, System.nanoTime() - epochStart,
+                            epochError/trainingSetSize, correct/trainingSetSize);
                 }
-                displayImage(c5, 120, "C5");
+                evaluateEpoch(e+1, System.nanoTime() - epochStart);
+            }
+        }finally{
+            pool.shutdown();
+        }
+    }
 
-                //F6: Feed-forward fully connected hidden layer with 120 inputs, 84 hidden weights per input, and 84 biases
-                double[] f6 = new double[f6Size];
-                for(int h = 0; h < f6Size; h++){
-                    for(int n = 0; n < c5Size; n++){
-                        f6[h] += c5[n] * f6Weights[h][n];
-                    }
-                    f6[h] += f6Biases[h];
+    /**
+     * One Hogwild worker's pass over its shard of the training set, a range of consecutive images
+     * split off with MnistDataset.shard(), in an order reshuffled every epoch. Every sample's
+     * update is written to the shared weights as soon as it has been backpropagated
+     */
+    private final class HogwildShard extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int id;
+        private final MnistDataset shard;
+        private final int[] order;
+        private final Workspace ws = new Workspace();
+        private final MiniBatch sample = new MiniBatch(1, inputWidth, inputHeight, outputSize);
+        private int epoch;
+        private double error;
+        private int correct;
+
+        /**
+         * @param id - the number of the shard
+         * @param shards - the number of shards the training set is split into
+         */
+        HogwildShard(int id, int shards) {
+            this.id = id;
+            this.shard = trainingSet.shard(id, shards);
+            this.order = new int[shard.size()];
+        }
+
+        @Override
+        protected void compute() {
+            int shards = trainingThreads;
+            shard.permutation((shuffleSeed + epoch)*shards + id, order);
+            Telemetry telemetry = LeNet5.this.telemetry;
+            long firstSample = samplesSeen;
+            error = 0;
+            correct = 0;
+            for(int i = 0; i < order.length; i++){
+                sample.reset(epoch);
+                sample.add(shard, order[i]);
+                long n = firstSample + (long)i*shards + id;
+                boolean observed = observer != LayerObserver.NONE && n % observeEvery == 0;
+                Tensor output = forward(ws, sample.image(0), n, observed ? observer : null, true);
+                if(argmax(output) == sample.label(0)){
+                    correct++;
                 }
-                displayImage(f6, 84, "F6");
+                long backwardStart = telemetry != null ? System.nanoTime() : 0;
+                clear(ws.gradients);
+                error += backward(ws, sample.target(0));
+                if(telemetry != null) telemetry.record(Telemetry.Stage.BACKWARD, backwardStart, true);
+                update(ws.gradients, 1, stripedUpdates ? id : 0);
+            }
+        }
+    }
 
-                //Output: Feed-forward fully connected output layer with 84 inputs, 10 weights per input
-                double[] output = new double[outputSize];
-                for(int o = 0; o < outputSize; o++){
-                    for(int h = 0; h < f6Size; h++){
-                        output[o] += f6[h] * outputWeights[o][h];
-                    }
+    /**
+     * Backpropagates a range of slices of a mini-batch, splitting the range in half until each
+     * task has one slice. Slice s covers an equal share of the batch and is backpropagated into
+     * workers[s]. Once both halves are done the gradients of the first slice of the second half
+     * are added onto those of the first slice of the first half, so when the task for every slice
+     * completes workers[0] holds the gradients summed over the whole batch
+     */
+    private final class BatchSlices extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Workspace[] workers;
+        private final MiniBatch batch;
+        private final long firstSample;
+        private final int start;
+        private final int end;
+        private final double[] errors;
+        private final int[] correct;
+
+        /**
+         * @param workers - one workspace per slice
+         * @param batch - the mini-batch
+         * @param firstSample - the number of samples trained on before the batch
+         * @param start - the first slice of the range
+         * @param end - one past the last slice of the range, which is also the number of slices for the first task
+         * @param errors - the summed error of each slice is written here
+         * @param correct - the number of correctly classified samples of each slice is written here
+         */
+        BatchSlices(Workspace[] workers, MiniBatch batch, long firstSample, int start, int end, double[] errors, int[] correct) {
+            this.workers = workers;
+            this.batch = batch;
+            this.firstSample = firstSample;
+            this.start = start;
+            this.end = end;
+            this.errors = errors;
+            this.correct = correct;
+        }
+
+        @Override
+        protected void compute() {
+            if(end - start > 1){
+                int middle = (start + end) >>> 1;
+                invokeAll(new BatchSlices(workers, batch, firstSample, start, middle, errors, correct),
+                        new BatchSlices(workers, batch, firstSample, middle, end, errors, correct));
+                double[] sum = workers[start].gradients.data();
+                kernels.axpy(1, workers[middle].gradients.data(), 0, sum, 0, sum.length);
+                return;
+            }
+            //The slices are fixed by the batch size and the thread count alone, never by scheduling
+            int slices = Math.min(workers.length, batch.size());
+            Workspace ws = workers[start];
+            Telemetry telemetry = LeNet5.this.telemetry;
+            clear(ws.gradients);
+            double error = 0;
+            int hits = 0;
+            for(int t = batch.size()*start/slices; t < batch.size()*(start + 1)/slices; t++){
+                long sample = firstSample + t;
+                boolean observed = observer != LayerObserver.NONE && sample % observeEvery == 0;
+                Tensor output = forward(ws, batch.image(t), sample, observed ? observer : null, true);
+                if(argmax(output) == batch.label(t)){
+                    hits++;
                 }
-                displayImage(output, 10, "Output");
-//            }
-            System.out.println("Epoch " + (e+1) + " completed.");
+                long backwardStart = telemetry != null ? System.nanoTime() : 0;
+                error += backward(ws, batch.target(t));
+                if(telemetry != null) telemetry.record(Telemetry.Stage.BACKWARD, backwardStart, true);
+            }
+            errors[start] = error;
+            correct[start] = hits;
         }
+    }
 
-        System.out.println("\nDone training.");
+    /**
+     * Feeds a single image forward through every layer of the network. The weights are only
+     * read, so any number of threads may call this at once with their own workspaces
+     * @param ws - the workspace the activations of every layer are written to
+     * @param input - the normalized 28x28 input image
+     * @param sample - the number of the sample being fed forward
+     * @param observer - the observer to pass each layer's activations to, or null
+     * @param training - whether backward() will follow, which needs the C1 and C3 activations
+     *                 that inference skips writing out
+     * @return - the activations of the output layer, a view into the workspace
+     */
+    private Tensor forward(Workspace ws, Tensor input, long sample, LayerObserver observer, boolean training){
+        if(observer != null) observer.onLayer(sample, "Input", input);
+        Telemetry telemetry = this.telemetry;
+        long time = telemetry != null ? System.nanoTime() : 0;
+
+        //C1: Padded convolution of the input from a 32 x 32 to 28 x 28 using 5 x 5 filter with 1-bit stride
+        //S2: Pooling of the 6 matrices form C1 into 14x14 matrices using 6 2x2 filters with 2-bit stride
+        boolean keepActivations = training || observer != null;
+        pad(input, ws.padded);
+        convolutionEngine.convolvePoolC1(weights, activation, ws, keepActivations);
+        if(observer != null) observer.onLayer(sample, "C1", ws.c1);
+        if(observer != null) observer.onLayer(sample, "S2", ws.s2);
+        if(telemetry != null) time = telemetry.record(Telemetry.Stage.C1_S2, time, training);
+
+        //C3: Convolution of the 6 matrices in S2 into 16 10x10 matrices using 60 5x5 filters,
+        //see C3Connections for which S2 maps feed each C3 map
+        //S4: Pooling of the 16 matrices from C3 into 16 5x5 matrices using 2x2 filters with 2-bit stride
+        convolutionEngine.convolvePoolC3(weights, activation, ws, keepActivations);
+        if(observer != null) observer.onLayer(sample, "C3", ws.c3);
+        if(observer != null) observer.onLayer(sample, "S4", ws.s4);
+        if(telemetry != null) time = telemetry.record(Telemetry.Stage.C3_S4, time, training);
+
+        //C5: Convolution of 16 matrices from S4 into a single 120-node array using 16 5x5 filters and 120 additional weights
+        Tensor c5 = ws.c5;
+        convolutionEngine.convolveC5(weights, activation, ws);
+        if(observer != null) observer.onLayer(sample, "C5", c5);
+        if(telemetry != null) time = telemetry.record(Telemetry.Stage.C5, time, training);
+
+        //F6: Feed-forward fully connected hidden layer with 120 inputs, 84 hidden weights per input, and 84 biases
+        Tensor f6 = ws.f6;
+        fullyConnect(c5, weights.f6Weights, weights.f6Biases, f6);
+        if(observer != null) observer.onLayer(sample, "F6", f6);
+        if(telemetry != null) time = telemetry.record(Telemetry.Stage.F6, time, training);
+
+        //Output: Feed-forward fully connected output layer with 84 inputs, 10 weights per input
+        Tensor output = ws.output;
+        fullyConnect(f6, weights.outputWeights, null, output);
+        if(observer != null) observer.onLayer(sample, "Output", output);
+        if(telemetry != null) telemetry.record(Telemetry.Stage.OUTPUT, time, training);
+        return output;
     }
 
     /**
-     * The CNNet's activation function according to the paper found at
-     * <a href="https://ieeexplore.ieee.org/stamp/stamp.jsp?tp=&arnumber=726791">
-     *     Gradient-Based Learning Applied to Document Recognition by Yann LeCun et al
-     * </a>
-     * @param input - the input to the node
-     * @return - the activation of the node
+     * Backpropagates the error of the last forward pass through every layer, adding the gradient
+     * of the error with respect to every weight onto the workspace's gradients.
+     * The error is half the squared distance between the output and the desired output
+     * @param ws - the workspace the sample was fed forward through
+     * @param target - the one-hot encoded desired output
+     * @return - the error of the sample
      */
-    private double tanh(double input){
-        //Take the sigmoid of the input and multiply it by the slope at origin
-        //TODO: Multiply sigmoided input by tanOriginSlope
-        double tanhInput = input;
-        //The activation function is a tanh function multiplied by a programmer-specified amplitude
-        //TODO: Multiply the returned value by tanAmplitude
-        return ((Math.exp(tanhInput)-Math.exp(-tanhInput))/(Math.exp(tanhInput)+Math.exp(-tanhInput)));
+    private double backward(Workspace ws, Tensor target){
+        Weights gradients = ws.gradients;
+
+        //Output
+        double error = 0;
+        for(int o = 0; o < outputSize; o++){
+            double difference = ws.output.get(o) - target.get(o);
+            ws.outputGradient.set(o, difference);
+            error += 0.5 * difference * difference;
+        }
+        fullyConnectBackward(ws.f6, weights.outputWeights, gradients.outputWeights, null, ws.outputGradient, ws.f6Gradient);
+
+        //F6
+        fullyConnectBackward(ws.c5, weights.f6Weights, gradients.f6Weights, gradients.f6Biases, ws.f6Gradient, ws.c5Gradient);
+
+        //C5: every filter is applied to all 16 S4 maps, the sum is scaled by c5Weights[f]
+        multiplyByTanhDerivative(ws.c5Gradient, ws.c5);
+        ws.s4Gradient.fill(0);
+        for(int f = 0; f < c5Size; f++){
+            double delta = ws.c5Gradient.get(f);
+            gradients.c5Weights.add(f, delta * ws.c5Sums.get(f));
+            gradients.c5Biases.add(f, delta);
+            double sumDelta = delta * weights.c5Weights.get(f);
+            for(int s = 0; s < s4Size; s++){
+                convolveBackward(ws.s4, s, weights.c5Filters, f, gradients.c5Filters, sumDelta, ws.s4Gradient);
+            }
+        }
+
+        //S4
+        poolBackward(ws.s4Gradient, ws.s4Means, weights.s4Weights, gradients.s4Weights, gradients.s4Biases, 2, 2, 2, ws.c3Gradient);
+
+        //C3: each map only backpropagates into the S2 maps C3Connections connects it to
+        multiplyByTanhDerivative(ws.c3Gradient, ws.c3);
+        ws.s2Gradient.fill(0);
+        for(int f = 0; f < c3Size; f++){
+            int[] inputs = C3Connections.inputs[f];
+            for(int k = 0; k < inputs.length; k++){
+                convolveBackward(ws.s2, inputs[k], weights.c3Filters, C3Connections.firstFilter[f] + k,
+                        gradients.c3Filters, ws.c3Gradient, f, ws.s2Gradient);
+            }
+            gradients.c3Biases.add(f, sum(ws.c3Gradient, f));
+        }
+
+        //S2
+        poolBackward(ws.s2Gradient, ws.s2Means, weights.s2Weights, gradients.s2Weights, gradients.s2Biases, 2, 2, 2, ws.c1Gradient);
+
+        //C1: the error does not need to be propagated back into the input
+        multiplyByTanhDerivative(ws.c1Gradient, ws.c1);
+        for(int f = 0; f < c1Size; f++){
+            convolveBackward(ws.padded, 0, weights.c1Filters, f, gradients.c1Filters, ws.c1Gradient, f, null);
+            gradients.c1Biases.add(f, sum(ws.c1Gradient, f));
+        }
+        return error;
     }
 
     /**
-     * Activation function of the output layer
-     * @param input - all of the ACTIVATED INPUTS that go into the output layer
-     * @return - the output of this output node
+     * Estimates the second derivative of the error with respect to every weight, averaged over
+     * randomly chosen training samples, for DiagonalLevenbergMarquardt
+     * @param curvature - overwritten with the average second derivative of every weight
+     * @param samples - the number of training samples to average over
      */
-    private double outputActivation(int output, double[] input){
-        double activation = 0;
-        for(int i = 0; i < input.length; i++){
-            activation += Math.pow((input[i] - outputWeights[output][i]),2);
+    void estimateCurvature(Weights curvature, int samples){
+        Workspace ws = trainingWorkspace;
+        Workspace squares = new Workspace();
+        MiniBatch sample = new MiniBatch(1, inputWidth, inputHeight, outputSize);
+        Random random = new Random(shuffleSeed + samplesSeen);
+
+        //The squared weights; the pooling weights are divided by 4, see backwardCurvature
+        Weights squaredWeights = new Weights();
+        double[] w = weights.data();
+        double[] w2 = squaredWeights.data();
+        for(int i = 0; i < w.length; i++){
+            w2[i] = w[i] * w[i];
+        }
+        for(Tensor pooling : new Tensor[]{squaredWeights.s2Weights, squaredWeights.s4Weights}){
+            for(int m = 0; m < pooling.size(); m++){
+                pooling.set(m, pooling.get(m)/4);
+            }
+        }
+
+        for(int n = 0; n < samples; n++){
+            sample.reset(0);
+            sample.add(trainingSet, random.nextInt(trainingSet.size()));
+            forward(ws, sample.image(0), samplesSeen, null, true);
+            backwardCurvature(ws, squaredWeights, squares);
+        }
+        double[] sum = squares.gradients.data();
+        double[] average = curvature.data();
+        for(int i = 0; i < average.length; i++){
+            average[i] = sum[i]/samples;
         }
-        return activation;
     }
 
+    /**
+     * Backpropagates the Gauss-Newton approximation of the second derivatives of the error of the
+     * last forward pass, adding the second derivative with respect to every weight onto
+     * squares.gradients. This is backward() with every factor squared and every tanh derivative
+     * squared, so it reuses the same helpers on squared copies of the weights and activations.
+     * A pooling average spreads w/4 to each of its inputs, which becomes (w/4)^2 here; as
+     * poolBackward divides the weight it is given by 4, the squared pooling weights are w^2/4
+     * @param ws - the workspace the sample was fed forward through
+     * @param squaredWeights - the squared weights
+     * @param squares - receives the squared activations, their second derivatives and the curvature
+     */
+    private void backwardCurvature(Workspace ws, Weights squaredWeights, Workspace squares){
+        Weights curvature = squares.gradients;
+        for(Tensor[] layer : new Tensor[][]{{ws.padded, squares.padded}, {ws.s2Means, squares.s2Means}, {ws.s2, squares.s2},
+                {ws.s4Means, squares.s4Means}, {ws.s4, squares.s4}, {ws.c5Sums, squares.c5Sums}, {ws.c5, squares.c5}, {ws.f6, squares.f6}}){
+            double[] from = layer[0].data();
+            double[] to = layer[1].data();
+            for(int i = 0; i < layer[0].size(); i++){
+                double x = from[layer[0].offset() + i];
+                to[layer[1].offset() + i] = x * x;
+            }
+        }
+
+        //Output: the second derivative of half the squared error is 1 for every output
+        squares.outputGradient.fill(1);
+        fullyConnectBackward(squares.f6, squaredWeights.outputWeights, curvature.outputWeights, null, squares.outputGradient, squares.f6Gradient);
+
+        //F6
+        fullyConnectBackward(squares.c5, squaredWeights.f6Weights, curvature.f6Weights, curvature.f6Biases, squares.f6Gradient, squares.c5Gradient);
+
+        //C5
+        multiplyByTanhDerivative(squares.c5Gradient, ws.c5);
+        multiplyByTanhDerivative(squares.c5Gradient, ws.c5);
+        squares.s4Gradient.fill(0);
+        for(int f = 0; f < c5Size; f++){
+            double delta = squares.c5Gradient.get(f);
+            curvature.c5Weights.add(f, delta * squares.c5Sums.get(f));
+            curvature.c5Biases.add(f, delta);
+            double sumDelta = delta * squaredWeights.c5Weights.get(f);
+            for(int s = 0; s < s4Size; s++){
+                convolveBackward(squares.s4, s, squaredWeights.c5Filters, f, curvature.c5Filters, sumDelta, squares.s4Gradient);
+            }
+        }
+
+        //S4
+        poolBackward(squares.s4Gradient, squares.s4Means, squaredWeights.s4Weights, curvature.s4Weights, curvature.s4Biases, 2, 2, 2, squares.c3Gradient);
+
+        //C3
+        multiplyByTanhDerivative(squares.c3Gradient, ws.c3);
+        multiplyByTanhDerivative(squares.c3Gradient, ws.c3);
+        squares.s2Gradient.fill(0);
+        for(int f = 0; f < c3Size; f++){
+            int[] inputs = C3Connections.inputs[f];
+            for(int k = 0; k < inputs.length; k++){
+                convolveBackward(squares.s2, inputs[k], squaredWeights.c3Filters, C3Connections.firstFilter[f] + k,
+                        curvature.c3Filters, squares.c3Gradient, f, squares.s2Gradient);
+            }
+            curvature.c3Biases.add(f, sum(squares.c3Gradient, f));
+        }
+
+        //S2
+        poolBackward(squares.s2Gradient, squares.s2Means, squaredWeights.s2Weights, curvature.s2Weights, curvature.s2Biases, 2, 2, 2, squares.c1Gradient);
+
+        //C1
+        multiplyByTanhDerivative(squares.c1Gradient, ws.c1);
+        multiplyByTanhDerivative(squares.c1Gradient, ws.c1);
+        for(int f = 0; f < c1Size; f++){
+            convolveBackward(squares.padded, 0, squaredWeights.c1Filters, f, curvature.c1Filters, squares.c1Gradient, f, null);
+            curvature.c1Biases.add(f, sum(squares.c1Gradient, f));
+        }
+    }
 
     /**
-     * A sigmoid activation function
-     * @param input - the input
-     * @return - the double sigmoid activation value
+     * Takes an optimizer step, moving every weight against its gradient averaged over the batch
+     * @param gradients - the summed gradients of the batch
+     * @param samples - the number of samples the gradients were summed over
      */
-    private double sigmoid(double input){
-        return 1/(1+Math.exp(-input));
+    private void update(Weights gradients, int samples){
+        double[] w = weights.data();
+        optimizer.update(w, gradients.data(), 0, w.length, learningRate / samples);
     }
 
     /**
-     * Calculates a single output of the convolution
-     * @param matrix - the image to be filtered
-     * @param filter - the filter kernel
-     * @param x - the x position of the pixel
-     * @param y - the y position of the pixel
-     * @return - the double new pixel value of the convolution
+     * Takes the same step as update(gradients, samples) one layer's tensor at a time, starting
+     * from tensor firstTensor and wrapping around to the tensors before it
+     * @param gradients - the summed gradients of the batch
+     * @param samples - the number of samples the gradients were summed over
+     * @param firstTensor - the index in Weights.tensors() of the first tensor to update
      */
-    private double convolvePixel(double[][] matrix, double[][] filter, int x, int y){
-        double output = 0;
-        for(int i = 0; i < filter.length; i++){
-            for(int j = 0; j < filter[i].length; j++){
-                output += matrix[x+i][y+j] * filter[i][j];
-            }
+    private void update(Weights gradients, int samples, int firstTensor){
+        double[] w = weights.data();
+        double[] g = gradients.data();
+        double step = learningRate / samples;
+        Tensor[] tensors = gradients.tensors();
+        for(int n = 0; n < tensors.length; n++){
+            Tensor tensor = tensors[(firstTensor + n) % tensors.length];
+            optimizer.update(w, g, tensor.offset(), tensor.offset() + tensor.size(), step);
         }
-        return output;
     }
 
     /**
-     * Convolves a 2D matrix with a 2D filter with padding
-     * @param matrix - the 2D matrix representing an image
-     * @param filter - the filter kernel
-     * @param bias - the trainable bias associated with the convolution filter
-     * @param outputWidth - the resulting width of the output
-     * @param outputHeight - the resulting height of the output
-     * @return - the double[][] array of the new image after convolution
-     */
-    private double[][] convolvePadded(double[][] matrix, double[][] filter, double bias, int outputWidth, int outputHeight){
-        int horizontalPadding = (outputWidth - matrix.length + filter.length - 1)/2;
-        int verticalPadding = (outputHeight - matrix[0].length + filter[0].length - 1)/2;
-        double[][] output = new double[outputWidth][outputHeight];
-
-        //Pad the matrix
-        double[][] paddedMatrix = new double[outputWidth + horizontalPadding][outputHeight + verticalPadding];
-        for(int i = 0; i < matrix.length; i++){
-            for(int j = 0; j < matrix[i].length; j++){
-                paddedMatrix[i + horizontalPadding][j + verticalPadding] = matrix[i][j];
+     * Sets every gradient to zero
+     * @param gradients - Weights
+     */
+    private static void clear(Weights gradients){
+        Arrays.fill(gradients.data(), 0);
+    }
+
+    /**
+     * Classifies a single image. Safe to call from any number of threads at once
+     * @param image - the normalized 28x28 image
+     * @return - the digit the network recognizes in the image
+     */
+    public int predict(Tensor image){
+        return argmax(forward(inferenceWorkspaces.get(), image, 0, null, false));
+    }
+
+    /**
+     * Classifies every image in a data set, splitting the images across all available cores.
+     * Each thread feeds its share of the images through its own workspace against the shared weights
+     * @param images - the images to classify
+     * @return - the digit recognized in each image, in data set order
+     */
+    public int[] predictBatch(MnistDataset images){
+        int[] predictions = new int[images.size()];
+        int chunks = Math.min(images.size(), 4*Runtime.getRuntime().availableProcessors());
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            Workspace ws = inferenceWorkspaces.get();
+            int end = (int)((long)images.size()*(c+1)/chunks);
+            for(int i = (int)((long)images.size()*c/chunks); i < end; i++){
+                images.copyImage(i, ws.input);
+                predictions[i] = argmax(forward(ws, ws.input, i, null, false));
             }
+        });
+        return predictions;
+    }
+
+    /**
+     * Classifies every image in a labelled data set and measures how well and how fast it did.
+     * The data set is split into chunks that are classified in parallel, each thread counting
+     * its chunks into its own Evaluation, and the Evaluations are merged at the end
+     * @param images - the labelled images to classify
+     * @return - the confusion matrix, throughput and per-image latencies
+     */
+    public Evaluation testNetworkImages(MnistDataset images){
+        long start = System.nanoTime();
+        int chunks = Math.min(images.size(), 4*Runtime.getRuntime().availableProcessors());
+        Evaluation evaluation = IntStream.range(0, chunks).parallel().mapToObj(c -> {
+            Evaluation partial = new Evaluation();
+            Workspace ws = inferenceWorkspaces.get();
+            int end = (int)((long)images.size()*(c+1)/chunks);
+            for(int i = (int)((long)images.size()*c/chunks); i < end; i++){
+                long imageStart = System.nanoTime();
+                images.copyImage(i, ws.input);
+                int prediction = argmax(forward(ws, ws.input, i, null, false));
+                partial.record(images.label(i), prediction, System.nanoTime() - imageStart);
+            }
+            return partial;
+        }).collect(Evaluation::new, Evaluation::merge, Evaluation::merge);
+        evaluation.setElapsed(System.nanoTime() - start);
+        return evaluation;
+    }
+
+    /**
+     * Tests the network on the evaluation set, if one is set, after a training epoch
+     * @param epoch - the number of the epoch, from 1
+     * @param epochNanos - how long the epoch took to train
+     */
+    private void evaluateEpoch(int epoch, long epochNanos){
+        if(evaluationSet == null){
+            return;
         }
+        Evaluation evaluation = testNetworkImages(evaluationSet);
+        System.out.printf("Epoch %d test accuracy: %.2f%%, tested in %.3f s (%.1f%% of the epoch's training time)%n",
+                epoch, 100*evaluation.accuracy(), evaluation.elapsed()/1e9, 100.0*evaluation.elapsed()/epochNanos);
+    }
+
+    /**
+     * Classifies a set of images, splitting them across all available cores
+     * @param images - the normalized 28x28 images
+     * @return - the digit recognized in each image
+     */
+    public int[] predictBatch(Tensor[] images){
+        int[] predictions = new int[images.length];
+        IntStream.range(0, images.length).parallel().forEach(i -> predictions[i] = predict(images[i]));
+        return predictions;
+    }
 
-        //Convolve the matrix
-        for(int i = 0; i < outputWidth + horizontalPadding - filter.length + 1; i++){
-            for(int j = 0; j < outputHeight + horizontalPadding - filter[0].length + 1; j++){
-                output[i][j] = tanh(convolvePixel(paddedMatrix, filter, i, j) + bias);
+    /**
+     * @param output - the activations of the output layer
+     * @return - the index of the most active output node
+     */
+    private static int argmax(Tensor output){
+        int best = 0;
+        for(int o = 1; o < output.size(); o++){
+            if(output.get(o) > output.get(best)){
+                best = o;
             }
         }
-        return output;
+        return best;
+    }
+
+    /**
+     * Copies a 2D matrix into the middle of a larger one, leaving a border of equal width on every side
+     * so a convolution over the padded matrix keeps the size of the original
+     * @param matrix - the 2D matrix representing an image
+     * @param paddedMatrix - a 1 x width x height Tensor whose border must be zero; only the inside is written
+     */
+    private void pad(Tensor matrix, Tensor paddedMatrix){
+        int horizontalPadding = (paddedMatrix.size(1) - matrix.size(0))/2;
+        int verticalPadding = (paddedMatrix.size(2) - matrix.size(1))/2;
+        for(int i = 0; i < matrix.size(0); i++){
+            System.arraycopy(matrix.data(), matrix.offset(i), paddedMatrix.data(),
+                    paddedMatrix.offset(0, i + horizontalPadding, verticalPadding), matrix.size(1));
+        }
     }
 
     /**
@@ -326,215 +981,239 @@ public class LeNet5 {
      * @param poolWidth - the width of the pooling grid
      * @param poolHeight - the height of the pooling grid
      * @param stride - how many units over the pooling grid will move between iterations
-     * @return - the double[][][] set of pooled matrices
+     * @param means - the averages of each pooling grid, kept for the backward pass
+     * @param output - the set of pooled matrices
      */
-    private double[][][] pool(double[][][] matrices, double[] poolingWeights, double[] biases, int poolWidth, int poolHeight, int stride){
-        int outputWidth = matrices[0].length / poolWidth;
-        int outputHeight = matrices[0][0].length / poolHeight;
-        double[][][] output = new double[matrices.length][outputWidth][outputHeight];
+    static void pool(Tensor matrices, Tensor poolingWeights, Tensor biases, int poolWidth, int poolHeight, int stride, Tensor means, Tensor output){
+        double[] in = matrices.data();
+        int rowStride = matrices.stride(1);
 
-        for(int m = 0; m < matrices.length; m++){
-            for(int i = 0; i < (matrices[m].length - poolWidth + stride)/stride; i++){
-                for(int j = 0; j < (matrices[m][i].length - poolHeight + stride)/stride; j++){
+        for(int m = 0; m < matrices.size(0); m++){
+            for(int i = 0; i < (matrices.size(1) - poolWidth + stride)/stride; i++){
+                for(int j = 0; j < (matrices.size(2) - poolHeight + stride)/stride; j++){
                     //Sum all of the values in the embossed area on the matrix
+                    double sum = 0;
+                    int row = matrices.offset(m, i*stride, j*stride);
                     for(int k = 0; k < poolWidth; k++){
                         for(int l = 0; l < poolHeight; l++){
-                            output[m][i][j] += matrices[m][i*stride+k][j*stride+l];
+                            sum += in[row + l];
                         }
+                        row += rowStride;
                     }
-                    //Multiply the average by the pooled weight at that point and add biases
-                    //TODO: Sigmoid??? The activation
-                    output[m][i][j] = (output[m][i][j]/(poolWidth*poolHeight)) * poolingWeights[m] + biases[m];
+                    //Multiply the average by the pooled weight at that point and add biases. Subsampling
+                    //has no activation of its own; the next convolution's activation follows it
+                    double mean = sum/(poolWidth*poolHeight);
+                    means.set(m, i, j, mean);
+                    output.set(m, i, j, mean * poolingWeights.get(m) + biases.get(m));
                 }
             }
         }
-
-        return output;
     }
 
     /**
-     * Initializes the weights of the given 3D array to a uniform distribution
-     * between -2.4/Fi to 2.4/Fi, where Fi is the size of the input TO the layer using
-     * this weight matrix
-     * @param weights - the weight matrix to be initialized
-     * @param Fi - the size of the input to the layer
+     * Feeds a layer of nodes forward through a fully connected weight matrix
+     * @param input - the activations of the previous layer
+     * @param layerWeights - one row of weights per output node
+     * @param biases - the bias of each output node, or null if the layer has none
+     * @param output - the layer the weighted sums are written to
      */
-    public void initializeWeights(double[][][] weights, int Fi){
-        for(int i = 0; i < weights.length; i++){
-            for(int j = 0; j < weights[i].length; j++){
-                for(int k = 0; k < weights[i][j].length; k++){
-                    weights[i][j][k] = Math.random()*(2.4/Fi + 1 - (-2.4/Fi) + 2.4/Fi);
-                }
-            }
-        }
-    }
-
-    /**
-     * Initializes the weights of the given 1D array to a uniform distribution
-     * between -2.4/Fi to 2.4/Fi, where Fi is the size of the input TO the layer using
-     * this weight matrix
-     * @param weights - the weight array to be initialized
-     * @param Fi - the size of the input to the layer
-     */
-    public void initializeWeights(double[] weights, int Fi){
-        for(int i = 0; i < weights.length; i++){
-            weights[i] = Math.random()*(2.4/Fi + 1 - (-2.4/Fi) + 2.4/Fi);
+    private void fullyConnect(Tensor input, Tensor layerWeights, Tensor biases, Tensor output){
+        double[] in = input.data();
+        double[] w = layerWeights.data();
+        int inOffset = input.offset();
+        int inputSize = input.size();
+        for(int o = 0; o < output.size(); o++){
+            double sum = kernels.dot(in, inOffset, w, layerWeights.offset(o), inputSize);
+            output.set(o, biases == null ? sum : sum + biases.get(o));
         }
     }
 
     /**
-     * Initializes the weights of the given 2D array to a uniform distribution
-     * of either -1 or 1 (USED TO INITIALIZE OUTPUT WEIGHTS)
-     * @param outputWeights - the weight array to be initialized
+     * Backpropagates through one map of a valid convolution: adds the filter's gradient, and if
+     * inputGradients is given, the gradient of the filtered map, for every output pixel of the map
+     * @param matrices - the set of images that was filtered
+     * @param m - the index of the filtered image
+     * @param filters - the set of filter kernels
+     * @param f - the index of the filter kernel
+     * @param filterGradients - the gradients of the filter kernels
+     * @param outputGradients - the error gradients of the convolution's outputs
+     * @param o - the index of the output map
+     * @param inputGradients - the error gradients of the filtered images, or null
      */
-    public void initializeOutputWeights(double[][] outputWeights){
-        for(int i = 0; i < outputWeights.length; i++){
-            for(int j = 0; j < outputWeights[i].length; j++){
-                outputWeights[i][j] = Math.random() > 0.5 ? 1 : -1;
+    private void convolveBackward(Tensor matrices, int m, Tensor filters, int f, Tensor filterGradients,
+                                  Tensor outputGradients, int o, Tensor inputGradients){
+        double[] delta = outputGradients.data();
+        int deltaOffset = outputGradients.offset(o);
+        int width = outputGradients.size(1);
+        int height = outputGradients.size(2);
+        for(int i = 0; i < width; i++){
+            for(int j = 0; j < height; j++){
+                double d = delta[deltaOffset + i*height + j];
+                if(d != 0){
+                    convolveBackward(matrices, m, filters, f, filterGradients, d, inputGradients, i, j);
+                }
             }
         }
     }
 
     /**
-     * Converts the solution parameter into a binary encoding, where the value at the
-     * solution parameter index is 1, and the rest of the encoding is all 0.
-     *
-     * For example: The encoding for 5 is {0,0,0,0,0,1,0,0,0,0}
-     * @param solution - double (gets cast to an int)
-     * @return double[] the binary encoding
+     * Backpropagates through the single output pixel at (0, 0) of a valid convolution
      */
-    public double[] binaryEncodeSolution(double solution){
-        double[] binaryDesiredOutput = new double[outputSize];
-        int solutionLocation = (int)solution;
-        binaryDesiredOutput[solutionLocation] = 1;
-        return binaryDesiredOutput;
+    private void convolveBackward(Tensor matrices, int m, Tensor filters, int f, Tensor filterGradients,
+                                  double delta, Tensor inputGradients){
+        convolveBackward(matrices, m, filters, f, filterGradients, delta, inputGradients, 0, 0);
     }
 
-
-
-
     /**
-     * Uses the PixelGrid class to display the 1D image read from the
-     * MNIST data set
-     * @param image - int[]
+     * Backpropagates the error of one output pixel of a convolution into the filter and the filtered image
      */
-    public static void displayImage(double[]image, int size, String name) {
-        JFrame window = new JFrame(name);
-        int width = Math.min(size, 40);
-        window.setSize((width+2)*16, 100);
-        PixelGrid pGrid = drawImage(image, width, 1);
-        window.add(pGrid);
-        window.setVisible(true);
-        window.repaint();
-        window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+    private void convolveBackward(Tensor matrices, int m, Tensor filters, int f, Tensor filterGradients,
+                                  double delta, Tensor inputGradients, int x, int y){
+        double[] matrix = matrices.data();
+        double[] filter = filters.data();
+        double[] filterGradient = filterGradients.data();
+        int rowStride = matrices.stride(1);
+        int row = matrices.offset(m, x, y);
+        int k = filters.offset(f);
+        int gk = filterGradients.offset(f);
+        if(inputGradients == null){
+            for(int i = 0; i < filterWidth; i++){
+                for(int j = 0; j < filterHeight; j++){
+                    filterGradient[gk++] += delta * matrix[row + j];
+                }
+                row += rowStride;
+            }
+        }else{
+            double[] inputGradient = inputGradients.data();
+            int gradientRow = inputGradients.offset(m, x, y);
+            for(int i = 0; i < filterWidth; i++){
+                for(int j = 0; j < filterHeight; j++){
+                    filterGradient[gk++] += delta * matrix[row + j];
+                    inputGradient[gradientRow + j] += delta * filter[k++];
+                }
+                row += rowStride;
+                gradientRow += rowStride;
+            }
+        }
     }
 
     /**
-     * Uses the PixelGrid class to display the 2D image read from the
-     * MNIST data set
-     * @param image - int[][]
-     * @param size - the width/height of the image (assumes the image is square)
+     * Backpropagates through an average pooling layer into its pooling weights, biases and input
+     * @param outputGradients - the error gradients of the pooled matrices
+     * @param means - the averages of each pooling grid from the forward pass
+     * @param poolingWeights - the trainable weights the averages were multiplied by
+     * @param weightGradients - the gradients of the pooling weights
+     * @param biasGradients - the gradients of the biases
+     * @param poolWidth - the width of the pooling grid
+     * @param poolHeight - the height of the pooling grid
+     * @param stride - how many units over the pooling grid moved between iterations
+     * @param inputGradients - the error gradients of the matrices that were pooled, overwritten
      */
-    public static void displayImage(double[][]image, int size, String name) {
-        JFrame window = new JFrame(name);
-        window.setSize((size+2)*16, (size+2)*16 + 20);
-        PixelGrid pGrid = drawImage(image, size, size);
-        window.add(pGrid);
-        window.setVisible(true);
-        window.repaint();
-        window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+    private void poolBackward(Tensor outputGradients, Tensor means, Tensor poolingWeights, Tensor weightGradients,
+                              Tensor biasGradients, int poolWidth, int poolHeight, int stride, Tensor inputGradients){
+        inputGradients.fill(0);
+        double[] in = inputGradients.data();
+        int rowStride = inputGradients.stride(1);
+        for(int m = 0; m < outputGradients.size(0); m++){
+            double weightGradient = 0;
+            double biasGradient = 0;
+            double spread = poolingWeights.get(m)/(poolWidth*poolHeight);
+            for(int i = 0; i < outputGradients.size(1); i++){
+                for(int j = 0; j < outputGradients.size(2); j++){
+                    double delta = outputGradients.get(m, i, j);
+                    weightGradient += delta * means.get(m, i, j);
+                    biasGradient += delta;
+                    int row = inputGradients.offset(m, i*stride, j*stride);
+                    for(int k = 0; k < poolWidth; k++){
+                        for(int l = 0; l < poolHeight; l++){
+                            in[row + l] += delta * spread;
+                        }
+                        row += rowStride;
+                    }
+                }
+            }
+            weightGradients.add(m, weightGradient);
+            biasGradients.add(m, biasGradient);
+        }
     }
 
     /**
-     * Helper method for displayImage that draws the 1D image on the
-     * PixelGrid
-     * @param image - int[]
-     * @param width - int
-     * @param height - int
-     * @return grid the PixelGrid representation of the image
+     * Backpropagates through a fully connected layer
+     * @param input - the activations of the previous layer
+     * @param layerWeights - one row of weights per output node
+     * @param weightGradients - the gradients of layerWeights
+     * @param biasGradients - the gradients of the biases, or null if the layer has none
+     * @param outputGradients - the error gradients of the layer's outputs
+     * @param inputGradients - the error gradients of the previous layer, overwritten
      */
-    public static PixelGrid drawImage(double[] image, int width, int height) {
-        PixelGrid grid = new PixelGrid(width, height);
-        int c = 0;
-        for(int i = 0; i<width; i++) {
-            for(int j = 0; j<height; j++) {
-                grid.setPixel((int)(image[c++]*255),j,i);
+    private void fullyConnectBackward(Tensor input, Tensor layerWeights, Tensor weightGradients, Tensor biasGradients,
+                                      Tensor outputGradients, Tensor inputGradients){
+        double[] in = input.data();
+        double[] w = layerWeights.data();
+        double[] gw = weightGradients.data();
+        double[] gin = inputGradients.data();
+        int inOffset = input.offset();
+        int ginOffset = inputGradients.offset();
+        int inputSize = input.size();
+        inputGradients.fill(0);
+        for(int o = 0; o < outputGradients.size(); o++){
+            double delta = outputGradients.get(o);
+            kernels.axpy(delta, in, inOffset, gw, weightGradients.offset(o), inputSize);
+            kernels.axpy(delta, w, layerWeights.offset(o), gin, ginOffset, inputSize);
+            if(biasGradients != null){
+                biasGradients.add(o, delta);
             }
         }
-        return grid;
     }
 
     /**
-     * Helper method for displayImage that draws the 2D image on the
-     * PixelGrid
-     * @param image - int[][]
-     * @param width - int
-     * @param height - int
-     * @return grid the PixelGrid representation of the image
+     * Turns the error gradients of a layer's activations into the gradients of its weighted sums
+     * @param gradients - the gradients, multiplied in place
+     * @param activations - the activations of the layer
      */
-    public static PixelGrid drawImage(double[][] image, int width, int height) {
-        PixelGrid grid = new PixelGrid(width, height);
-        int c = 0;
-        for(int i = 0; i<width; i++) {
-            for(int j = 0; j<height; j++) {
-                grid.setPixel((int)(image[i][j]*255),j,i);
-            }
-        }
-        return grid;
+    private void multiplyByTanhDerivative(Tensor gradients, Tensor activations){
+        activation.multiplyByDerivative(gradients.data(), gradients.offset(), activations.data(), activations.offset(), gradients.size());
     }
 
     /**
-     * Initializes the weights in a simple manner to demonstrate functionality
+     * @param matrices - a rank 3 Tensor
+     * @param m - the index of the matrix
+     * @return - the sum of every value in the matrix
      */
-    public void initializeTestWeightsSimple(){
-        //Initialize filters to have a center of 1 and C5, F6, and Output weights to 1
-        for(int f = 0; f < c1Filters.length; f++) {
-            c1Filters[f][2][2] = 1.0;
-        }
-        for(int f = 0; f < c3Filters.length; f++) {
-            c3Filters[f][2][2] = 1.0;
-        }
-        for(int f = 0; f < c5Filters.length; f++) {
-            c5Filters[f][2][2] = 1.0;
-        }
-        for(int i = 0; i < s2Weights.length; i++){
-            s2Weights[i] = Math.random() - 0.5;
-        }
-        for(int i = 0; i < s4Weights.length; i++){
-            s4Weights[i] = Math.random() - 0.5;
-        }
-        for(int i = 0; i < c5Weights.length; i++){
-            c5Weights[i] = Math.random() - 0.5;
-        }
-        for(int i = 0; i < c5Biases.length; i++){
-            c5Biases[i] = Math.random() - 0.5;
-        }
-        for(int i = 0; i < f6Weights.length; i++){
-            for(int j = 0; j < f6Weights[i].length; j++){
-                f6Weights[i][j] = Math.random() - 0.5;
-            }
-        }
-        for(int i = 0; i < f6Biases.length; i++){
-            f6Biases[i] = Math.random() - 0.5;
-        }
-        for(int i = 0; i < outputWeights.length; i++){
-            for(int j = 0; j < outputWeights[i].length; j++){
-                outputWeights[i][j] = Math.random() - 0.5;
-            }
+    private static double sum(Tensor matrices, int m){
+        double[] data = matrices.data();
+        int start = matrices.offset(m);
+        int end = start + matrices.stride(0);
+        double sum = 0;
+        for(int i = start; i < end; i++){
+            sum += data[i];
         }
+        return sum;
     }
 
-    private void printMatrix(double[][][] convolvedLayer) {
-        for(int i = 0; i < convolvedLayer.length; i++) {
-            for(int j = 0; j < convolvedLayer[i].length; j++) {
-                for(int k = 0; k < convolvedLayer[i][j].length; k++) {
-                    System.out.print(convolvedLayer[i][j][k] + ", ");
-                }            System.out.println();
-            }
-            if(i+1 < convolvedLayer.length)
-                System.out.println("Next Convolved Layer:");
+    /**
+     * Queues the initialization of the given tensor to a uniform distribution over the range
+     * the initialization gives for Fi, the size of the input TO the node using this weight
+     * matrix, in chunks that each get their own stream split off random
+     * @param weights - the weight tensor to be initialized
+     * @param Fi - the size of the input to the layer
+     * @param initialization - the rule giving the range
+     * @param random - the stream the chunks' streams are split from
+     * @param chunks - receives one task per chunk
+     */
+    private static void initializeWeights(Tensor weights, int Fi, WeightInitialization initialization,
+                                          SplittableRandom random, List<Runnable> chunks){
+        double range = initialization.range(Fi);
+        for(int start = 0; start < weights.size(); start += initializationChunk){
+            SplittableRandom stream = random.split();
+            int first = start;
+            int end = Math.min(weights.size(), start + initializationChunk);
+            chunks.add(() -> {
+                for(int i = first; i < end; i++){
+                    weights.set(i, stream.nextDouble(-range, range));
+                }
+            });
         }
-        System.out.println();
     }
 
 }
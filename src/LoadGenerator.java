@@ -0,0 +1,99 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Benchmarks an InferenceServer: opens a number of connections, each on its own (virtual when
+ * available) thread, and has every connection send test images back to back for a fixed time,
+ * one request in flight per connection. A request answered BUSY is retried after a millisecond.
+ * Prints the throughput, the round trip latency percentiles, the number of BUSY and ERROR replies
+ * and the accuracy of the digits returned.
+ *
+ * Usage: LoadGenerator [connections] [seconds] [port]
+ */
+public class LoadGenerator {
+
+    /**
+     * Main method
+     * @param args - String[]
+     */
+    public static void main(String[] args){
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 5313;
+        MnistDataset testSet;
+        try{
+            testSet = MnistDataset.loadTestSet();
+        }catch(IOException e){
+            System.err.println(e);
+            return;
+        }
+
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder answered = new LongAdder();
+        LongAdder correct = new LongAdder();
+        LongAdder busy = new LongAdder();
+        LongAdder errors = new LongAdder();
+        CountDownLatch finished = new CountDownLatch(connections);
+        long end = System.nanoTime() + seconds*1_000_000_000L;
+        long start = System.nanoTime();
+        ExecutorService threads = InferenceServer.newPerTaskExecutor();
+        for(int c = 0; c < connections; c++){
+            int connection = c;
+            threads.execute(() -> {
+                byte[] pixels = new byte[InferenceServer.requestSize];
+                try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)){
+                    socket.setTcpNoDelay(true);
+                    OutputStream out = socket.getOutputStream();
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    for(int i = connection; System.nanoTime() < end; i = (i + connections) % testSet.size()){
+                        testSet.copyPixels(i, pixels, 0);
+                        long sent = System.nanoTime();
+                        out.write(pixels);
+                        int reply = in.readUnsignedByte();
+                        if(reply == InferenceServer.BUSY){
+                            busy.increment();
+                            Thread.sleep(1);
+                            continue;
+                        }
+                        if(reply == InferenceServer.ERROR){
+                            errors.increment();
+                            continue;
+                        }
+                        latency.record(System.nanoTime() - sent);
+                        answered.increment();
+                        if(reply == testSet.label(i)){
+                            correct.increment();
+                        }
+                    }
+                }catch(IOException e){
+                    System.err.println(e);
+                }catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }finally{
+                    finished.countDown();
+                }
+            });
+        }
+        try{
+            finished.await();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            return;
+        }
+        threads.shutdown();
+        double elapsed = (System.nanoTime() - start)/1e9;
+
+        long n = answered.sum();
+        System.out.printf("%d connections for %.1f s: %d answered (%.0f/s), %d busy, %d errors%n", connections, elapsed, n,
+                n/elapsed, busy.sum(), errors.sum());
+        System.out.printf("round trip p50 %.0f us, p99 %.0f us, max %.0f us; accuracy %.2f%%%n",
+                latency.percentile(0.5)/1e3, latency.percentile(0.99)/1e3, latency.max()/1e3,
+                n == 0 ? 0 : 100.0*correct.sum()/n);
+    }
+}
@@ -4,112 +4,112 @@ import java.io.*;
 public class MNISTCNN {
 
     /**
-     * Main method
+     * Main method. Runs headless unless --display (show layers in windows) or
+     * --dump DIRECTORY (write layers to PNG and raw files) is given.
+     * --load FILE skips training and tests the checkpoint in FILE instead, and
+     * --save FILE writes the trained network to a checkpoint in FILE.
+     * --telemetry prints the time spent in each layer after training and after testing
      * @param args - String[]
      */
     public static void main(String[] args){
-        testCNNetImage();
+        LayerObserver observer = LayerObserver.NONE;
+        String load = null;
+        String save = null;
+        Telemetry telemetry = null;
+        for(int i = 0; i < args.length; i++){
+            if(args[i].equals("--display")){
+                observer = new SwingLayerObserver();
+            }else if(args[i].equals("--dump") && i + 1 < args.length){
+                observer = new ImageDumpObserver(new File(args[++i]), true, true);
+            }else if(args[i].equals("--load") && i + 1 < args.length){
+                load = args[++i];
+            }else if(args[i].equals("--save") && i + 1 < args.length){
+                save = args[++i];
+            }else if(args[i].equals("--telemetry")){
+                telemetry = new Telemetry();
+            }
+        }
+        testCNNetImage(observer, load, save, telemetry);
     }
 
     /**
      * Trains and tests the LeNet5 CNNet on the MNIST dataset
+     * @param observer - the observer shown the layers of every 1000th training sample
      */
-    public static void testCNNetImage(){
-        int sectionLength = 60; //Programmer determined: Only reads a certain number of numbers to avoid running out of memory
-        //Read in the training data
-        System.out.println("Parsing data...");
-        double[][][] trainImages = readImage("MNIST\\train-images-idx3-ubyte", sectionLength, 28, 28);
-        System.out.println("Images read. Reading labels...");
-        double[] trainOutputs = readLabels("MNIST\\train-labels-idx1-ubyte", sectionLength);
-        System.out.println("Labels read. Training data parsed.");
-
-        //Train the network
-        System.out.println("Training network...");
-        LeNet5 net = new LeNet5();
-        net.initNetwork(trainImages, trainOutputs);
-        net.trainNetwork(1);
-
-        //Read in the testing data
-        //TODO: Uncomment for milestone 2
-//        System.out.println("Reading testing data...");
-//        double[][][] testImages = readImage("MNIST\\t10k-images-idx3-ubyte", 10000, 28, 28);
-        //Read the expected outputs
-//        double[] testOutputs = readLabels("MNIST\\t10k-labels-idx1-ubyte", 10000);
-
-        //Test the network
-//        System.out.println("Testing network...");
-//        net.testNetworkImages(testImages, testOutputs);
-//        System.out.println("Testing complete.");
+    public static void testCNNetImage(LayerObserver observer){
+        testCNNetImage(observer, null, null, null);
     }
 
     /**
-     * Reads the MNIST images from the specified filepath. Reads only as many images
-     * Creates a 3D array of the images. The first index is the image number
-     * as specified by sectionLength
-     * @param filepath - String
-     * @param sectionLength - int
-     * @param imageWidth - int
-     * @param imageHeight - int
-     * @return the double[][][] of un-padded MNIST images
+     * Trains, or loads, and tests the LeNet5 CNNet on the MNIST dataset
+     * @param observer - the observer shown the layers of every 1000th training sample
+     * @param load - the checkpoint to test instead of training, or null
+     * @param save - the file to save the trained network to, or null
+     * @param telemetry - where to record the time spent in each layer, or null
      */
-    public static double[][][] readImage(String filepath, int sectionLength, int imageWidth, int imageHeight){
-        //Read the images
-        double[][][] inputImages = new double[sectionLength][imageWidth][imageHeight];
-        File trainingFile = new File(filepath);
-        BufferedInputStream inputFile;
-        try{
-            inputFile = new BufferedInputStream(new FileInputStream(trainingFile));
-        }catch(FileNotFoundException e){
-            System.err.println(e);
-            return null;
-        }
-        try{
-            inputFile.skip(16);
-            for (int i = 0; i < inputImages.length; i++) {
-                for (int r = 0; r < imageWidth; r++) {
-                    for(int c = 0; c < imageHeight; c++) {
-                        inputImages[i][r][c] = inputFile.read()/255.0;
+    public static void testCNNetImage(LayerObserver observer, String load, String save, Telemetry telemetry){
+        LeNet5 net = new LeNet5();
+        net.setTelemetry(telemetry);
+        if(load != null){
+            System.out.println("Loading checkpoint...");
+            long start = System.nanoTime();
+            try{
+                net.loadCheckpoint(load);
+            }catch(IOException e){
+                System.err.println(e);
+                return;
+            }
+            System.out.printf("Loaded %s in %.1f ms%n", load, (System.nanoTime() - start)/1e6);
+        }else{
+            //Read in the training data
+            System.out.println("Parsing data...");
+            MnistDataset trainingSet;
+            try{
+                trainingSet = MnistDataset.loadTrainingSet();
+            }catch(IOException e){
+                System.err.println(e);
+                return;
+            }
+            System.out.println(trainingSet.size() + " training images mapped.");
 
-                    }
-                }
+            //Train the network
+            System.out.println("Training network...");
+            net.initNetwork(trainingSet);
+            net.setObserver(observer, 1000);
+            net.trainNetwork(1);
+            if(telemetry != null){
+                System.out.println(telemetry.report());
+                telemetry.reset();
             }
-            inputFile.close();
-            return inputImages;
-        }catch(IOException e){
-            System.err.println(e);
-            return null;
         }
-    }
-
-    /**
-     * Reads the MNIST labels from the specified filepath. Reads only as many labels as
-     * specified by sectionLength
-     * @param filepath - String
-     * @param sectionLength - int
-     * @return the double[] array of labels
-     */
-    public static double[] readLabels(String filepath, int sectionLength){
-        //Read the expected outputs
-        double[] desiredOutputs = new double[sectionLength];
-        File trainingSolutions = new File(filepath);
-        BufferedInputStream solutionFile;
-        try{
-            solutionFile = new BufferedInputStream(new FileInputStream(trainingSolutions));
-        }catch(FileNotFoundException e){
-            System.err.println(e);
-            return null;
+        if(save != null){
+            try{
+                net.saveCheckpoint(save);
+            }catch(IOException e){
+                System.err.println(e);
+                return;
+            }
+            System.out.println("Saved checkpoint to " + save);
         }
+
+        //Read in the testing data
+        System.out.println("Reading testing data...");
+        MnistDataset testSet;
         try{
-            solutionFile.skip(8);
-            for (int j = 0; j < desiredOutputs.length; j++) {
-                desiredOutputs[j] = solutionFile.read();
-            }
-            solutionFile.close();
-            return desiredOutputs;
+            testSet = MnistDataset.loadTestSet();
         }catch(IOException e){
             System.err.println(e);
-            return null;
+            return;
+        }
+
+        //Test the network
+        System.out.println("Testing network...");
+        Evaluation evaluation = net.testNetworkImages(testSet);
+        System.out.print(evaluation.report());
+        if(telemetry != null){
+            System.out.println(telemetry.report());
         }
+        System.out.println("Testing complete.");
     }
 
     /**
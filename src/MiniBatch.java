@@ -0,0 +1,130 @@
+/**
+ * A reusable block of network-ready training samples: normalized images, their one-hot
+ * encoded desired outputs and the raw labels. Batches are filled by the BatchPipeline's
+ * loader threads and handed back to it once the trainer is done with them, so the buffers
+ * are allocated once and recycled for the whole run.
+ */
+public class MiniBatch {
+
+    private final Tensor images;
+    private final Tensor targets;
+    private final Tensor[] imageViews;
+    private final Tensor[] targetViews;
+    private final int[] labels;
+    private final int[] indices;
+    private int size = 0;
+    private int epoch = 0;
+
+    /**
+     * Allocates an empty batch
+     * @param capacity - the largest number of samples the batch can hold
+     * @param width - the width of each image
+     * @param height - the height of each image
+     * @param outputSize - the number of classes the labels are encoded over
+     */
+    public MiniBatch(int capacity, int width, int height, int outputSize) {
+        this.images = new Tensor(capacity, width, height);
+        this.targets = new Tensor(capacity, outputSize);
+        this.imageViews = new Tensor[capacity];
+        this.targetViews = new Tensor[capacity];
+        for(int i = 0; i < capacity; i++){
+            imageViews[i] = images.slice(i);
+            targetViews[i] = targets.slice(i);
+        }
+        this.labels = new int[capacity];
+        this.indices = new int[capacity];
+    }
+
+    /**
+     * Copies a sample out of the data set into the next free slot of the batch,
+     * normalizing the image and one-hot encoding its label
+     * @param data - the data set the sample comes from
+     * @param index - the index of the sample in the data set
+     */
+    void add(MnistDataset data, int index) {
+        data.copyImage(index, imageViews[size]);
+        int label = data.label(index);
+        targetViews[size].fill(0);
+        targetViews[size].set(label, 1);
+        labels[size] = label;
+        indices[size] = index;
+        size++;
+    }
+
+    /**
+     * Copies a sample that is not part of a data set into the next free slot of the batch,
+     * one-hot encoding its label. Its index() is -1
+     * @param image - the normalized image
+     * @param label - the digit the image is labelled with
+     */
+    public void add(Tensor image, int label) {
+        System.arraycopy(image.data(), image.offset(), imageViews[size].data(), imageViews[size].offset(), imageViews[size].size());
+        targetViews[size].fill(0);
+        targetViews[size].set(label, 1);
+        labels[size] = label;
+        indices[size] = -1;
+        size++;
+    }
+
+    /**
+     * Empties the batch so it can be refilled
+     * @param epoch - the epoch the batch is about to be filled for
+     */
+    void reset(int epoch) {
+        this.size = 0;
+        this.epoch = epoch;
+    }
+
+    /**
+     * @return the number of samples in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the largest number of samples the batch can hold
+     */
+    public int capacity() {
+        return labels.length;
+    }
+
+    /**
+     * @return the epoch this batch belongs to
+     */
+    public int epoch() {
+        return epoch;
+    }
+
+    /**
+     * @param i - the sample within the batch
+     * @return the normalized image of the sample
+     */
+    public Tensor image(int i) {
+        return imageViews[i];
+    }
+
+    /**
+     * @param i - the sample within the batch
+     * @return the one-hot encoded desired output of the sample
+     */
+    public Tensor target(int i) {
+        return targetViews[i];
+    }
+
+    /**
+     * @param i - the sample within the batch
+     * @return the digit the sample is labelled with
+     */
+    public int label(int i) {
+        return labels[i];
+    }
+
+    /**
+     * @param i - the sample within the batch
+     * @return the index of the sample in the data set it was read from
+     */
+    public int index(int i) {
+        return indices[i];
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * A set of MNIST images and their labels, read straight out of the memory-mapped IDX files.
+ * Pixels stay as unsigned bytes and are only scaled into [0, 1] as they are copied into a
+ * network input, so a full 60,000 image set costs no heap beyond this object.
+ *
+ * A data set is never modified. Images are visited in a shuffled order through a permutation
+ * of their indices rather than by moving them, and shard() splits a set into disjoint views
+ * of the same mapped files for parallel workers.
+ */
+public class MnistDataset {
+
+    private final ByteBuffer pixels;
+    private final ByteBuffer labels;
+    private final int size;
+    private final int width;
+    private final int height;
+    private final int imageSize;
+
+    private MnistDataset(ByteBuffer pixels, ByteBuffer labels, int size, int width, int height) {
+        this.pixels = pixels;
+        this.labels = labels;
+        this.size = size;
+        this.width = width;
+        this.height = height;
+        this.imageSize = width*height;
+    }
+
+    /**
+     * Maps the 60000 image MNIST training set in the MNIST directory
+     * @return the MnistDataset over the training images and labels
+     * @throws IOException if either file is missing or malformed
+     */
+    public static MnistDataset loadTrainingSet() throws IOException {
+        return load("MNIST/train-images-idx3-ubyte", "MNIST/train-labels-idx1-ubyte");
+    }
+
+    /**
+     * Maps the 10000 image MNIST test set in the MNIST directory
+     * @return the MnistDataset over the test images and labels
+     * @throws IOException if either file is missing or malformed
+     */
+    public static MnistDataset loadTestSet() throws IOException {
+        return load("MNIST/t10k-images-idx3-ubyte", "MNIST/t10k-labels-idx1-ubyte");
+    }
+
+    /**
+     * Maps an IDX image file and its matching IDX label file
+     * @param imagesPath - the path of the idx3-ubyte image file
+     * @param labelsPath - the path of the idx1-ubyte label file
+     * @return the MnistDataset over both files
+     * @throws IOException if either file is missing or malformed, or they hold different numbers of items
+     */
+    public static MnistDataset load(String imagesPath, String labelsPath) throws IOException {
+        IdxFile images = IdxFile.map(imagesPath, 3);
+        IdxFile labels = IdxFile.map(labelsPath, 1);
+        if(images.count() != labels.count()){
+            throw new IOException(imagesPath + " holds " + images.count() + " images but "
+                    + labelsPath + " holds " + labels.count() + " labels");
+        }
+        return new MnistDataset(images.data(), labels.data(), images.count(), images.dimension(1), images.dimension(2));
+    }
+
+    /**
+     * Wraps labelled images that are already in memory, laid out as in an IDX file, without copying them
+     * @param pixels - the raw 0-255 pixels of every image, image after image, each in row-major order
+     * @param labels - the digit of every image
+     * @param width - the width of each image
+     * @param height - the height of each image
+     * @return the MnistDataset over both arrays
+     */
+    static MnistDataset wrap(byte[] pixels, byte[] labels, int width, int height) {
+        if(pixels.length != labels.length*width*height){
+            throw new IllegalArgumentException(pixels.length + " pixels do not make " + labels.length
+                    + " images of " + width + "x" + height);
+        }
+        return new MnistDataset(ByteBuffer.wrap(pixels), ByteBuffer.wrap(labels), labels.length, width, height);
+    }
+
+    /**
+     * Splits the set into shards of consecutive images, sized to differ by at most one image,
+     * without copying anything
+     * @param shard - the number of the shard, from 0
+     * @param shards - the number of shards the set is split into
+     * @return a data set of shard's images, which share this set's memory
+     */
+    public MnistDataset shard(int shard, int shards) {
+        if(shards < 1 || shard < 0 || shard >= shards){
+            throw new IllegalArgumentException("Shard " + shard + " of " + shards + " does not exist");
+        }
+        int start = (int)((long)size*shard/shards);
+        int count = (int)((long)size*(shard + 1)/shards) - start;
+        return new MnistDataset(pixels.slice(start*imageSize, count*imageSize), labels.slice(start, count), count, width, height);
+    }
+
+    /**
+     * Fills order with a Fisher-Yates permutation of the image indices that depends only on the seed
+     * @param seed - the seed of the shuffle
+     * @param order - receives the permutation in its first size() elements
+     */
+    public void permutation(long seed, int[] order) {
+        Random random = new Random(seed);
+        for(int i = 0; i < size; i++){
+            order[i] = i;
+        }
+        for(int i = size - 1; i > 0; i--){
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+    }
+
+    /**
+     * @return the number of images in the set
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the width of each image
+     */
+    public int width() {
+        return width;
+    }
+
+    /**
+     * @return the height of each image
+     */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * @param image - the index of the image
+     * @return the digit the image is labelled with
+     */
+    public int label(int image) {
+        return labels.get(image) & 0xFF;
+    }
+
+    /**
+     * @param image - the index of the image
+     * @param r - the row of the pixel
+     * @param c - the column of the pixel
+     * @return the raw 0-255 intensity of the pixel
+     */
+    public int pixel(int image, int r, int c) {
+        return pixels.get(image*imageSize + r*height + c) & 0xFF;
+    }
+
+    /**
+     * Copies one image into a tensor, scaling every pixel into [0, 1]
+     * @param image - the index of the image
+     * @param output - a Tensor with width*height elements
+     */
+    public void copyImage(int image, Tensor output) {
+        copyImage(image, output.data(), output.offset());
+    }
+
+    /**
+     * Copies one image into a flat array, scaling every pixel into [0, 1]
+     * @param image - the index of the image
+     * @param output - the array to write into
+     * @param offset - the index in output of the first pixel
+     */
+    public void copyImage(int image, double[] output, int offset) {
+        int start = image*imageSize;
+        for(int p = 0; p < imageSize; p++){
+            output[offset + p] = (pixels.get(start + p) & 0xFF)/255.0;
+        }
+    }
+
+    /**
+     * Copies the raw 0-255 pixels of one image, unscaled, into a byte array. Read them back with & 0xFF
+     * @param image - the index of the image
+     * @param output - the array to write into
+     * @param offset - the index in output of the first pixel
+     */
+    public void copyPixels(int image, byte[] output, int offset) {
+        pixels.get(image*imageSize, output, offset, imageSize);
+    }
+
+    /**
+     * Copies one image into a flat float array, scaling every pixel into [0, 1]
+     * @param image - the index of the image
+     * @param output - the array to write into
+     * @param offset - the index in output of the first pixel
+     */
+    public void copyImage(int image, float[] output, int offset) {
+        int start = image*imageSize;
+        for(int p = 0; p < imageSize; p++){
+            output[offset + p] = (pixels.get(start + p) & 0xFF)/255f;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * Gradient descent with momentum: every weight keeps a velocity that decays by the momentum
+ * each step and is pushed against the gradient, and the weight moves by its velocity. Steps in
+ * a consistent direction build up to 1/(1 - momentum) times the plain step, while oscillating
+ * gradients cancel out
+ */
+public class Momentum implements Optimizer {
+
+    private final double momentum;
+    private final double[] velocity = new double[new Weights().size()];
+
+    /**
+     * @param momentum - the fraction of the velocity kept from one step to the next, usually 0.9
+     */
+    public Momentum(double momentum) {
+        if(momentum < 0 || momentum >= 1){
+            throw new IllegalArgumentException("momentum must be in [0, 1)");
+        }
+        this.momentum = momentum;
+    }
+
+    @Override
+    public void update(double[] weights, double[] gradients, int start, int end, double step) {
+        for(int i = start; i < end; i++){
+            velocity[i] = momentum * velocity[i] - step * gradients[i];
+            weights[i] += velocity[i];
+        }
+    }
+}
@@ -0,0 +1,179 @@
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a network learning from newly labelled samples while other threads classify with it.
+ *
+ * The learner trains a private copy of the network's weights that no reader ever sees. Samples
+ * are collected into increments; once an increment is full it is trained on with per-sample
+ * SGD and a new CompiledLeNet5 is compiled from the private weights and published through a
+ * volatile field, replacing the previous snapshot. A snapshot holds only the folded weights;
+ * each reader thread classifies in the same buffers whichever snapshot it reads, so publishing
+ * allocates nothing per reader. A snapshot is immutable, so a reader that picked one up keeps
+ * classifying with exactly those weights even while a newer one is published, and predict()
+ * never takes a lock or waits on the trainer: it costs one volatile read on top of
+ * CompiledLeNet5.predict().
+ *
+ * Any number of threads may call learn(); they are serialized so the private weights are only
+ * ever trained by one thread at a time.
+ */
+public class OnlineLearner {
+
+    private final LeNet5 trainer;
+    private final MiniBatch increment;
+    private volatile CompiledLeNet5 snapshot;
+    private volatile long version = 0;
+
+    /**
+     * Starts from a copy of a network's weights, leaving the network itself untouched
+     * @param net - the network to start from, trained, loaded from a checkpoint or freshly initialized
+     * @param incrementSize - the number of samples trained on before a new snapshot is published
+     */
+    public OnlineLearner(LeNet5 net, int incrementSize) {
+        if(incrementSize < 1){
+            throw new IllegalArgumentException("incrementSize must be positive");
+        }
+        this.trainer = net.copy();
+        this.increment = new MiniBatch(incrementSize, LeNet5.inputWidth, LeNet5.inputHeight, LeNet5.outputSize);
+        this.snapshot = trainer.compile();
+    }
+
+    /**
+     * Sets the learning rate of the private copy
+     * @param learningRate - the step size of every per-sample update
+     */
+    public synchronized void setLearningRate(double learningRate) {
+        trainer.setLearningRate(learningRate);
+    }
+
+    /**
+     * Adds a labelled sample to the current increment, and when that fills, trains on it and
+     * publishes a new snapshot
+     * @param image - the normalized 28x28 image
+     * @param label - the digit the image shows
+     * @return - true if a new snapshot was published
+     */
+    public synchronized boolean learn(Tensor image, int label) {
+        increment.add(image, label);
+        if(increment.size() < increment.capacity()){
+            return false;
+        }
+        publish();
+        return true;
+    }
+
+    /**
+     * Trains on the samples of a partly filled increment, if any, and publishes a new snapshot
+     */
+    public synchronized void flush() {
+        if(increment.size() > 0){
+            publish();
+        }
+    }
+
+    /**
+     * Classifies an image with the latest published snapshot. Never blocks
+     * @param image - the normalized 28x28 image
+     * @return - the digit the network recognizes in the image
+     */
+    public int predict(Tensor image) {
+        return snapshot.predict(image);
+    }
+
+    /**
+     * @return the latest published snapshot, which never changes once published
+     */
+    public CompiledLeNet5 snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return the number of snapshots published since the learner was created
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Trains the private weights on the current increment and swaps in a snapshot of them
+     */
+    private void publish() {
+        trainer.trainIncrement(increment);
+        increment.reset(0);
+        snapshot = trainer.compile();
+        version++;
+    }
+
+    /**
+     * Main method. Streams the training set once through an OnlineLearner, starting from freshly
+     * initialized weights, while reader threads classify the test set without pause. Prints the
+     * test accuracy of the latest snapshot and the readers' throughput and slowest prediction
+     * after every 10000 samples
+     * Usage: OnlineLearner [increment size] [reader threads] [learning rate]
+     * @param args - String[]
+     */
+    public static void main(String[] args){
+        int incrementSize = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int readers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        double learningRate = args.length > 2 ? Double.parseDouble(args[2]) : 0.1;
+        MnistDataset trainingSet;
+        MnistDataset testSet;
+        try{
+            trainingSet = MnistDataset.loadTrainingSet();
+            testSet = MnistDataset.loadTestSet();
+        }catch(IOException e){
+            System.err.println(e);
+            return;
+        }
+        LeNet5 net = new LeNet5();
+        net.initNetwork(trainingSet);
+        OnlineLearner learner = new OnlineLearner(net, incrementSize);
+        learner.setLearningRate(learningRate);
+
+        //Readers classify test images back to back for as long as the learner is learning
+        AtomicBoolean learning = new AtomicBoolean(true);
+        LongAdder predictions = new LongAdder();
+        LatencyHistogram latency = new LatencyHistogram();
+        CountDownLatch stopped = new CountDownLatch(readers);
+        for(int r = 0; r < readers; r++){
+            int reader = r;
+            Thread thread = new Thread(() -> {
+                Tensor image = new Tensor(LeNet5.inputWidth, LeNet5.inputHeight);
+                for(int i = reader; learning.get(); i = (i + readers) % testSet.size()){
+                    testSet.copyImage(i, image);
+                    long start = System.nanoTime();
+                    learner.predict(image);
+                    latency.record(System.nanoTime() - start);
+                    predictions.increment();
+                }
+                stopped.countDown();
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        System.out.printf("%-10s %10s %10s %14s %18s%n", "samples", "snapshots", "accuracy", "predictions/s", "slowest (us)");
+        Tensor image = new Tensor(LeNet5.inputWidth, LeNet5.inputHeight);
+        long intervalStart = System.nanoTime();
+        for(int i = 0; i < trainingSet.size(); i++){
+            trainingSet.copyImage(i, image);
+            learner.learn(image, trainingSet.label(i));
+            if((i + 1) % 10000 == 0 || i + 1 == trainingSet.size()){
+                learner.flush();
+                double seconds = (System.nanoTime() - intervalStart)/1e9;
+                System.out.printf("%-10d %10d %9.2f%% %14.0f %18.1f%n", i + 1, learner.version(),
+                        100*learner.snapshot().testNetworkImages(testSet).accuracy(), predictions.sumThenReset()/seconds, latency.max()/1e3);
+                latency.reset();
+                intervalStart = System.nanoTime();
+            }
+        }
+        learning.set(false);
+        try{
+            stopped.await();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+}
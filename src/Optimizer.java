@@ -0,0 +1,27 @@
+/**
+ * Turns the gradients of a training step into a change of the weights. The network hands every
+ * step to its optimizer as one or more ranges of the flat weight and gradient buffers, so an
+ * optimizer keeping per-parameter state indexes it exactly like Weights.data().
+ *
+ * Under Hogwild training several threads call update() at once without locking, and the state
+ * of a stateful optimizer is then raced on just like the weights themselves.
+ */
+public interface Optimizer {
+
+    /**
+     * Called by the network before every training epoch
+     * @param network - the network about to be trained
+     */
+    default void epochStarted(LeNet5 network) {
+    }
+
+    /**
+     * Moves weights[start .. end) against gradients[start .. end)
+     * @param weights - the network's parameters, Weights.data()
+     * @param gradients - the gradients summed over the step's samples, laid out like weights
+     * @param start - the first index to update
+     * @param end - one past the last index to update
+     * @param step - the learning rate divided by the number of samples the gradients were summed over
+     */
+    void update(double[] weights, double[] gradients, int start, int end, double step);
+}
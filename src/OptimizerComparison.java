@@ -0,0 +1,60 @@
+import java.io.IOException;
+
+/**
+ * Trains LeNet5 from the same starting weights with each optimizer, one epoch at a time, until
+ * its test accuracy reaches the target or the epoch limit runs out, and prints how many epochs
+ * and how much wall-clock training time each needed. Time spent measuring the test accuracy
+ * is excluded; time spent estimating second derivatives is included.
+ *
+ * Usage: OptimizerComparison [target accuracy %] [max epochs]
+ */
+public class OptimizerComparison {
+
+    /**
+     * Main method
+     * @param args - String[]
+     */
+    public static void main(String[] args){
+        double target = args.length > 0 ? Double.parseDouble(args[0]) : 99;
+        int maxEpochs = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        MnistDataset trainingSet;
+        MnistDataset testSet;
+        try{
+            trainingSet = MnistDataset.loadTrainingSet();
+            testSet = MnistDataset.loadTestSet();
+        }catch(IOException e){
+            System.err.println(e);
+            return;
+        }
+
+        String[] names = {"sgd", "momentum", "sdlm"};
+        double[] learningRates = {0.1, 0.02, 0.002};
+        String[] results = new String[names.length];
+        for(int o = 0; o < names.length; o++){
+            Optimizer optimizer = o == 0 ? new GradientDescent() : o == 1 ? new Momentum(0.9) : new DiagonalLevenbergMarquardt();
+            LeNet5 net = new LeNet5();
+            net.initNetwork(trainingSet);
+            net.setOptimizer(optimizer);
+            net.setLearningRate(learningRates[o]);
+            double seconds = 0;
+            double accuracy = 0;
+            int epoch = 0;
+            while(epoch < maxEpochs && accuracy < target){
+                net.setShuffleSeed(313 + epoch);
+                long start = System.nanoTime();
+                net.trainNetwork(1);
+                seconds += (System.nanoTime() - start)/1e9;
+                accuracy = 100*net.testNetworkImages(testSet).accuracy();
+                epoch++;
+            }
+            results[o] = String.format("%-10s %8.4f %8d %12.2f %9.2f%%%s", names[o], learningRates[o], epoch, seconds, accuracy,
+                    accuracy >= target ? "" : "   (target not reached)");
+        }
+
+        System.out.printf("%nTime to %.2f%% test accuracy%n", target);
+        System.out.printf("%-10s %8s %8s %12s %10s%n", "optimizer", "rate", "epochs", "train (s)", "accuracy");
+        for(String result : results){
+            System.out.println(result);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+import java.io.IOException;
+
+/**
+ * Trains LeNet5 in double precision and FloatLeNet5 in single precision from the same starting
+ * weights and sample order, then compares their accuracy on the test set, how often they agree,
+ * the time each took and the memory their weights use. Exits with status 1 if the float model's
+ * test accuracy is more than the tolerance below the double model's.
+ *
+ * With --synthetic both networks train and test on seven-segment digits from SyntheticDigits
+ * instead of the MNIST files, so the check runs anywhere; gradle check runs it that way.
+ *
+ * Usage: PrecisionComparison [--synthetic] [epochs] [tolerance in percentage points]
+ */
+public class PrecisionComparison {
+
+    //The synthetic sets, drawn with different seeds so no test image is in the training set
+    private static final int syntheticTrainingSize = 3000;
+    private static final int syntheticTestSize = 2000;
+
+    /**
+     * Main method
+     * @param args - String[]
+     */
+    public static void main(String[] args){
+        boolean synthetic = args.length > 0 && args[0].equals("--synthetic");
+        int first = synthetic ? 1 : 0;
+        int epochs = args.length > first ? Integer.parseInt(args[first]) : 1;
+        double tolerance = args.length > first + 1 ? Double.parseDouble(args[first + 1]) : 0.5;
+        MnistDataset trainingSet;
+        MnistDataset testSet;
+        if(synthetic){
+            trainingSet = SyntheticDigits.generate(syntheticTrainingSize, 1);
+            testSet = SyntheticDigits.generate(syntheticTestSize, 2);
+        }else{
+            try{
+                trainingSet = MnistDataset.loadTrainingSet();
+                testSet = MnistDataset.loadTestSet();
+            }catch(IOException e){
+                System.err.println(e);
+                return;
+            }
+        }
+
+        LeNet5 doubleNet = new LeNet5();
+        doubleNet.initNetwork(trainingSet);
+        FloatLeNet5 floatNet = new FloatLeNet5();
+        floatNet.initNetwork(trainingSet, doubleNet.weights());
+
+        long start = System.nanoTime();
+        doubleNet.trainNetwork(epochs);
+        double doubleTraining = (System.nanoTime() - start)/1e9;
+        start = System.nanoTime();
+        floatNet.trainNetwork(epochs);
+        double floatTraining = (System.nanoTime() - start)/1e9;
+
+        //Warm both models up before timing them
+        for(int r = 0; r < 3; r++){
+            doubleNet.predictBatch(testSet);
+            floatNet.predictBatch(testSet);
+        }
+        start = System.nanoTime();
+        int[] doublePredictions = doubleNet.predictBatch(testSet);
+        double doubleTesting = (System.nanoTime() - start)/1e9;
+        start = System.nanoTime();
+        int[] floatPredictions = floatNet.predictBatch(testSet);
+        double floatTesting = (System.nanoTime() - start)/1e9;
+
+        int doubleCorrect = 0;
+        int floatCorrect = 0;
+        int agree = 0;
+        for(int i = 0; i < testSet.size(); i++){
+            if(doublePredictions[i] == testSet.label(i)) doubleCorrect++;
+            if(floatPredictions[i] == testSet.label(i)) floatCorrect++;
+            if(doublePredictions[i] == floatPredictions[i]) agree++;
+        }
+        double doubleAccuracy = 100.0*doubleCorrect/testSet.size();
+        double floatAccuracy = 100.0*floatCorrect/testSet.size();
+
+        System.out.printf("%-8s %12s %12s %12s %12s%n", "", "accuracy", "train (s)", "test (s)", "weights (KB)");
+        System.out.printf("%-8s %11.2f%% %12.2f %12.3f %12d%n", "double", doubleAccuracy, doubleTraining, doubleTesting,
+                doubleNet.weights().size()*Double.BYTES/1024);
+        System.out.printf("%-8s %11.2f%% %12.2f %12.3f %12d%n", "float", floatAccuracy, floatTraining, floatTesting,
+                floatNet.weights().size()*Float.BYTES/1024);
+        System.out.printf("Predictions agree on %.2f%% of the test set%n", 100.0*agree/testSet.size());
+        if(doubleAccuracy - floatAccuracy > tolerance){
+            System.out.printf("FAILED: float accuracy is more than %.2f points below double%n", tolerance);
+            System.exit(1);
+        }
+        System.out.printf("PASSED: float accuracy is within %.2f points of double%n", tolerance);
+    }
+}
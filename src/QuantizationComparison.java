@@ -0,0 +1,79 @@
+import java.io.IOException;
+
+/**
+ * Quantizes a trained LeNet5 to int8, calibrating on a sample of the training set, and compares
+ * the double precision network, its CompiledLeNet5 and the QuantizedLeNet5 on the test set: their
+ * accuracy, how often each agrees with the double precision network, the time one thread takes
+ * per image and the bytes their weights take. With the Vector API kernels the int8 model is
+ * expected to be the smallest and the fastest, see QuantizedLeNet5.
+ *
+ * Usage: QuantizationComparison [checkpoint] [calibration samples]  (without a checkpoint a network is trained for one epoch)
+ */
+public class QuantizationComparison {
+
+    /**
+     * Main method
+     * @param args - String[]
+     */
+    public static void main(String[] args){
+        int samples = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        MnistDataset trainingSet;
+        MnistDataset testSet;
+        LeNet5 net = new LeNet5();
+        try{
+            trainingSet = MnistDataset.loadTrainingSet();
+            testSet = MnistDataset.loadTestSet();
+            if(args.length > 0){
+                net.loadCheckpoint(args[0]);
+            }else{
+                net.initNetwork(trainingSet);
+                net.trainNetwork(1);
+            }
+        }catch(IOException e){
+            System.err.println(e);
+            return;
+        }
+        CompiledLeNet5 compiled = net.compile();
+        QuantizedLeNet5 quantized = QuantizedLeNet5.calibrate(compiled, trainingSet, samples);
+
+        //Warm every model up before timing them
+        for(int r = 0; r < 3; r++){
+            net.predictBatch(testSet);
+            compiled.predictBatch(testSet);
+            quantized.predictBatch(testSet);
+        }
+
+        Tensor image = new Tensor(LeNet5.inputWidth, LeNet5.inputHeight);
+        byte[] pixels = new byte[LeNet5.inputWidth*LeNet5.inputHeight];
+        int[][] predictions = new int[3][testSet.size()];
+        long[] nanos = new long[3];
+        for(int i = 0; i < testSet.size(); i++){
+            testSet.copyImage(i, image);
+            testSet.copyPixels(i, pixels, 0);
+            long start = System.nanoTime();
+            predictions[0][i] = net.predict(image);
+            long networkEnd = System.nanoTime();
+            predictions[1][i] = compiled.predict(image);
+            long compiledEnd = System.nanoTime();
+            predictions[2][i] = quantized.predict(pixels, 0);
+            nanos[2] += System.nanoTime() - compiledEnd;
+            nanos[1] += compiledEnd - networkEnd;
+            nanos[0] += networkEnd - start;
+        }
+
+        String[] names = {"LeNet5", "compiled", "int8"};
+        int[] bytes = {Double.BYTES*net.weights().size(), Double.BYTES*compiled.parameterCount(), quantized.weightBytes()};
+        System.out.printf("Calibrated on %d training images%n", Math.min(samples, trainingSet.size()));
+        System.out.printf("%-10s %10s %10s %14s %14s %12s%n", "model", "accuracy", "agreement", "latency (us)", "images/sec", "bytes");
+        for(int m = 0; m < names.length; m++){
+            int correct = 0;
+            int agree = 0;
+            for(int i = 0; i < testSet.size(); i++){
+                if(predictions[m][i] == testSet.label(i)) correct++;
+                if(predictions[m][i] == predictions[0][i]) agree++;
+            }
+            System.out.printf("%-10s %9.2f%% %9.2f%% %14.2f %14.0f %12d%n", names[m], 100.0*correct/testSet.size(),
+                    100.0*agree/testSet.size(), nanos[m]/1e3/testSet.size(), testSet.size()/(nanos[m]/1e9), bytes[m]);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Plain loops for every kernel, which the JIT may still auto-vectorize where it can
+ */
+public class ScalarKernels implements Kernels {
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double sum = 0;
+        for(int i = 0; i < length; i++){
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        for(int i = 0; i < length; i++){
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void convolveRow(double[] input, int inputOffset, int rowStride, double[] filter, int filterOffset,
+                            double[] output, int outputOffset, int width) {
+        for(int j = 0; j < width; j++){
+            double sum = 0;
+            int row = inputOffset + j;
+            int k = filterOffset;
+            for(int a = 0; a < LeNet5.filterWidth; a++){
+                for(int b = 0; b < LeNet5.filterHeight; b++){
+                    sum += input[row + b] * filter[k++];
+                }
+                row += rowStride;
+            }
+            output[outputOffset + j] = sum;
+        }
+    }
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float sum = 0;
+        for(int i = 0; i < length; i++){
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        for(int i = 0; i < length; i++){
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void convolveRow(float[] input, int inputOffset, int rowStride, float[] filter, int filterOffset,
+                            float[] output, int outputOffset, int width) {
+        for(int j = 0; j < width; j++){
+            float sum = 0;
+            int row = inputOffset + j;
+            int k = filterOffset;
+            for(int a = 0; a < LeNet5.filterWidth; a++){
+                for(int b = 0; b < LeNet5.filterHeight; b++){
+                    sum += input[row + b] * filter[k++];
+                }
+                row += rowStride;
+            }
+            output[outputOffset + j] = sum;
+        }
+    }
+
+    @Override
+    public void convolveRowAdd(byte[] input, int inputOffset, int rowStride, byte[] filter, int filterOffset,
+                               int[] output, int outputOffset, int width) {
+        for(int j = 0; j < width; j++){
+            int sum = 0;
+            int row = inputOffset + j;
+            int k = filterOffset;
+            for(int a = 0; a < LeNet5.filterWidth; a++){
+                for(int b = 0; b < LeNet5.filterHeight; b++){
+                    sum += input[row + b] * filter[k++];
+                }
+                row += rowStride;
+            }
+            output[outputOffset + j] += sum;
+        }
+    }
+
+    @Override
+    public int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int sum = 0;
+        for(int i = 0; i < length; i++){
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public int lanes() {
+        return 1;
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,10 @@
+/**
+ * The exact scaled hyperbolic tangent, computed with Math.tanh
+ */
+public class ScaledTanh implements Activation {
+
+    @Override
+    public double apply(double input) {
+        return amplitude * Math.tanh(originSlope * input);
+    }
+}
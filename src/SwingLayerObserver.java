@@ -0,0 +1,60 @@
+import javax.swing.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Displays the first feature map of every layer in its own window using PixelGrid. Each layer
+ * gets one window the first time it is observed, which is then redrawn for every later sample.
+ */
+public class SwingLayerObserver implements LayerObserver {
+
+    private final Map<String, JFrame> windows = new HashMap<>();
+
+    @Override
+    public void onLayer(long sample, String layer, Tensor activations) {
+        //Copy the activations now, the network reuses its buffers once this call returns
+        Tensor image = activations.rank() == 3 ? activations.slice(0) : activations;
+        double[] pixels = image.toArray();
+        int rows = image.rank() == 1 ? 1 : image.size(0);
+        int columns = image.rank() == 1 ? Math.min(image.size(), 40) : image.size(1);
+        String title = layer + " (sample " + sample + ")";
+        SwingUtilities.invokeLater(() -> show(title, layer, pixels, rows, columns));
+    }
+
+    /**
+     * Draws the image into the layer's window, creating the window the first time
+     */
+    private void show(String title, String layer, double[] pixels, int rows, int columns) {
+        JFrame window = windows.get(layer);
+        if(window == null){
+            window = new JFrame(title);
+            window.setSize((columns+2)*16, (rows+2)*16 + 20);
+            window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            windows.put(layer, window);
+        }
+        window.setTitle(title);
+        window.getContentPane().removeAll();
+        window.add(drawImage(pixels, rows, columns));
+        window.setVisible(true);
+        window.revalidate();
+        window.repaint();
+    }
+
+    /**
+     * Helper method that draws a flat, row-major image on a PixelGrid
+     * @param image - double[]
+     * @param rows - int
+     * @param columns - int
+     * @return grid the PixelGrid representation of the image
+     */
+    public static PixelGrid drawImage(double[] image, int rows, int columns) {
+        PixelGrid grid = new PixelGrid(columns, rows);
+        int c = 0;
+        for(int i = 0; i<rows; i++) {
+            for(int j = 0; j<columns; j++) {
+                grid.setPixel((int)(image[c++]*255),j,i);
+            }
+        }
+        return grid;
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.SplittableRandom;
+
+/**
+ * Generates MNIST-shaped data sets of seven-segment digits, for checks that must run without
+ * the MNIST image files. Every image draws its digit's segments as strokes of random position,
+ * size, thickness, slant and brightness on a 28x28 background of faint noise, so the classes
+ * overlap enough that a network has to learn shapes rather than memorize pixels, yet a few
+ * epochs on a couple of thousand images are enough to classify them well.
+ *
+ * The images depend only on the seed, so two sets drawn with different seeds make a training
+ * and a test set.
+ */
+public class SyntheticDigits {
+
+    static final int width = 28;
+    static final int height = 28;
+
+    //The segments lit for each digit, in the order top, top right, bottom right, bottom, bottom left, top left, middle
+    private static final boolean[][] segments = {
+            {true, true, true, true, true, true, false},
+            {false, true, true, false, false, false, false},
+            {true, true, false, true, true, false, true},
+            {true, true, true, true, false, false, true},
+            {false, true, true, false, false, true, true},
+            {true, false, true, true, false, true, true},
+            {true, false, true, true, true, true, true},
+            {true, true, true, false, false, false, false},
+            {true, true, true, true, true, true, true},
+            {true, true, true, true, false, true, true}
+    };
+
+    //The end points of each segment in a unit box, as {x0, y0, x1, y1} with y growing downwards
+    private static final double[][] strokes = {
+            {0, 0, 1, 0},
+            {1, 0, 1, 0.5},
+            {1, 0.5, 1, 1},
+            {0, 1, 1, 1},
+            {0, 0.5, 0, 1},
+            {0, 0, 0, 0.5},
+            {0, 0.5, 1, 0.5}
+    };
+
+    private SyntheticDigits() {
+    }
+
+    /**
+     * Draws a set of labelled images, each of a digit picked uniformly at random
+     * @param size - the number of images
+     * @param seed - the seed every image is drawn from
+     * @return the MnistDataset holding the images
+     */
+    public static MnistDataset generate(int size, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        byte[] pixels = new byte[size*width*height];
+        byte[] labels = new byte[size];
+        for(int i = 0; i < size; i++){
+            int digit = random.nextInt(10);
+            labels[i] = (byte)digit;
+            draw(digit, random, pixels, i*width*height);
+        }
+        return MnistDataset.wrap(pixels, labels, width, height);
+    }
+
+    /**
+     * Draws one digit
+     * @param digit - the digit to draw
+     * @param random - the source of the digit's shape and noise
+     * @param pixels - the array to draw into
+     * @param offset - the index in pixels of the image's first pixel
+     */
+    private static void draw(int digit, SplittableRandom random, byte[] pixels, int offset) {
+        double boxHeight = random.nextDouble(12, 19);
+        double boxWidth = random.nextDouble(0.45, 0.7)*boxHeight;
+        double thickness = random.nextDouble(1.2, 2.6);
+        double slant = random.nextDouble(-0.25, 0.25);
+        double brightness = random.nextDouble(160, 256);
+        double margin = 3 + thickness;
+        double top = random.nextDouble(margin, Math.max(margin + 1e-9, height - margin - boxHeight));
+        double left = random.nextDouble(margin, Math.max(margin + 1e-9, width - margin - boxWidth));
+
+        //Every segment's ends in pixel coordinates, leaning by the slant about the box's centre
+        double[][] lines = new double[strokes.length][];
+        int count = 0;
+        for(int s = 0; s < strokes.length; s++){
+            if(segments[digit][s]){
+                double[] stroke = strokes[s];
+                double y0 = top + stroke[1]*boxHeight;
+                double y1 = top + stroke[3]*boxHeight;
+                double centre = top + boxHeight/2;
+                lines[count++] = new double[]{
+                        left + stroke[0]*boxWidth - slant*(y0 - centre), y0,
+                        left + stroke[2]*boxWidth - slant*(y1 - centre), y1};
+            }
+        }
+
+        for(int r = 0; r < height; r++){
+            for(int c = 0; c < width; c++){
+                double distance = Double.MAX_VALUE;
+                for(int l = 0; l < count; l++){
+                    distance = Math.min(distance, distance(c + 0.5, r + 0.5, lines[l]));
+                }
+                double coverage = Math.max(0, Math.min(1, thickness/2 - distance + 0.5));
+                double value = brightness*coverage + random.nextDouble(0, 40) - 20;
+                pixels[offset + r*height + c] = (byte)Math.max(0, Math.min(255, (int)value));
+            }
+        }
+    }
+
+    /**
+     * @param x - the column of the point
+     * @param y - the row of the point
+     * @param line - the segment's ends, {x0, y0, x1, y1}
+     * @return the distance from the point to the nearest point of the segment
+     */
+    private static double distance(double x, double y, double[] line) {
+        double dx = line[2] - line[0];
+        double dy = line[3] - line[1];
+        double t = ((x - line[0])*dx + (y - line[1])*dy)/(dx*dx + dy*dy);
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(x - line[0] - t*dx, y - line[1] - t*dy);
+    }
+}
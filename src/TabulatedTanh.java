@@ -0,0 +1,63 @@
+/**
+ * The scaled hyperbolic tangent interpolated linearly from a table of tanh sampled every
+ * 1/256 over [0, 9]. tanh is odd, so negative inputs use the table through symmetry, and
+ * past 9 tanh is within 3e-8 of 1, so inputs are clamped to the last entry of the table.
+ * The scalar and array variants compute bit-identical results.
+ *
+ * The interpolation error of tanh is at most step^2/8 * max|tanh''| = 1.5e-6, so the
+ * activation is within 2.6e-6 of amplitude * Math.tanh(originSlope * x) for every x.
+ * Lookups take one multiply, a table read of two neighbouring entries and one fused
+ * multiply-add, where Math.tanh takes several times longer.
+ */
+public class TabulatedTanh implements Activation {
+
+    private static final int stepsPerUnit = 256;
+    private static final double range = 9;
+    private static final int steps = (int)(range*stepsPerUnit);
+
+    //amplitude * tanh(i/stepsPerUnit), with one extra entry so interpolation never reads past the end
+    private static final double[] table = new double[steps + 2];
+
+    //The same table rounded to floats for single precision layers
+    private static final float[] floatTable = new float[table.length];
+
+    static {
+        for(int i = 0; i < table.length; i++){
+            table[i] = amplitude * Math.tanh((double)i/stepsPerUnit);
+            floatTable[i] = (float)table[i];
+        }
+    }
+
+    @Override
+    public double apply(double input) {
+        double x = Math.min(originSlope * stepsPerUnit * Math.abs(input), steps);
+        int k = (int)x;
+        return Math.copySign(Math.fma(x - k, table[k + 1] - table[k], table[k]), input);
+    }
+
+    @Override
+    public void apply(double[] data, int start, int end, double bias) {
+        double scale = originSlope * stepsPerUnit;
+        double[] t = table;
+        for(int i = start; i < end; i++){
+            double input = data[i] + bias;
+            double x = Math.min(scale * Math.abs(input), steps);
+            int k = (int)x;
+            double value = Math.fma(x - k, t[k + 1] - t[k], t[k]);
+            data[i] = Math.copySign(value, input);
+        }
+    }
+
+    @Override
+    public void apply(float[] data, int start, int end, float bias) {
+        float scale = (float)(originSlope * stepsPerUnit);
+        float[] t = floatTable;
+        for(int i = start; i < end; i++){
+            float input = data[i] + bias;
+            float x = Math.min(scale * Math.abs(input), steps);
+            int k = (int)x;
+            float value = Math.fma(x - k, t[k + 1] - t[k], t[k]);
+            data[i] = Math.copySign(value, input);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Records how long every stage of the network takes, per sample, into one LatencyHistogram
+ * per stage, and the throughput, loss and accuracy of every training epoch. Every measurement
+ * is also emitted as a Flight Recorder event (cnnet.Layer and cnnet.Epoch) when a recording
+ * is running, e.g. with java -XX:StartFlightRecording=filename=run.jfr
+ *
+ * A LeNet5 only measures anything once it has been given a Telemetry with setTelemetry();
+ * without one, each stage costs a single never-taken branch. One Telemetry may be shared by
+ * the training thread and any number of inference threads.
+ */
+public class Telemetry {
+
+    /**
+     * The timed stages of a sample's pass. Convolution and subsampling are computed by one fused
+     * kernel, so C1 with S2 and C3 with S4 are timed together
+     */
+    public enum Stage {
+        C1_S2("C1+S2"), C3_S4("C3+S4"), C5("C5"), F6("F6"), OUTPUT("Output"), BACKWARD("Backward");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        /**
+         * @return the name of the stage
+         */
+        public String label() {
+            return label;
+        }
+    }
+
+    private final Map<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+    private volatile String lastEpoch = "no epochs completed";
+
+    /**
+     * Creates an empty set of histograms
+     */
+    public Telemetry() {
+        for(Stage stage : Stage.values()){
+            stages.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Records the end of a stage and starts timing the next one
+     * @param stage - the stage that just ended
+     * @param start - the System.nanoTime() the stage started at
+     * @param training - whether the sample is being trained on
+     * @return - the current System.nanoTime(), the start of the next stage
+     */
+    long record(Stage stage, long start, boolean training) {
+        long now = System.nanoTime();
+        long time = now - start;
+        stages.get(stage).record(time);
+        LayerEvent event = new LayerEvent();
+        if(event.isEnabled()){
+            event.layer = stage.label;
+            event.training = training;
+            event.time = time;
+            event.commit();
+        }
+        return now;
+    }
+
+    /**
+     * Starts the Flight Recorder event for an epoch
+     * @return - the event to pass to epochCompleted()
+     */
+    EpochEvent epochStarted() {
+        EpochEvent event = new EpochEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Records the results of an epoch
+     * @param event - the event returned by epochStarted()
+     * @param epoch - the number of the epoch, from 1
+     * @param samples - the number of samples trained on
+     * @param nanos - how long the epoch took
+     * @param loss - the mean loss of the samples
+     * @param accuracy - the fraction of samples classified correctly before their update
+     */
+    void epochCompleted(EpochEvent event, int epoch, long samples, long nanos, double loss, double accuracy) {
+        double samplesPerSecond = samples/(nanos/1e9);
+        lastEpoch = String.format("epoch %d: %d samples, %.0f samples/sec, mean loss %.4f, accuracy %.2f%%",
+                epoch, samples, samplesPerSecond, loss, 100*accuracy);
+        event.end();
+        if(event.shouldCommit()){
+            event.epoch = epoch;
+            event.samples = samples;
+            event.samplesPerSecond = samplesPerSecond;
+            event.loss = loss;
+            event.accuracy = accuracy;
+            event.commit();
+        }
+    }
+
+    /**
+     * @param stage - Stage
+     * @return the histogram of the stage's per-sample times
+     */
+    public LatencyHistogram histogram(Stage stage) {
+        return stages.get(stage);
+    }
+
+    /**
+     * Forgets every recorded time
+     */
+    public void reset() {
+        for(LatencyHistogram histogram : stages.values()){
+            histogram.reset();
+        }
+    }
+
+    /**
+     * @return a table of the count, mean, median, 99th percentile and maximum time of every stage,
+     *         followed by the results of the last epoch
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder(String.format("%-10s %10s %10s %10s %10s %10s%n",
+                "stage", "count", "mean (us)", "p50 (us)", "p99 (us)", "max (us)"));
+        for(Stage stage : Stage.values()){
+            LatencyHistogram h = stages.get(stage);
+            report.append(String.format("%-10s %10d %10.2f %10.2f %10.2f %10.2f%n", stage.label, h.count(),
+                    h.mean()/1e3, h.percentile(0.5)/1e3, h.percentile(0.99)/1e3, h.max()/1e3));
+        }
+        return report.append("Last ").append(lastEpoch).toString();
+    }
+}
@@ -0,0 +1,211 @@
+import java.util.Arrays;
+
+/**
+ * A dense, row-major tensor backed by a single primitive buffer. Every weight and activation
+ * of the network is stored as a Tensor so the inner loops of the convolution and pooling layers
+ * walk one contiguous array instead of following the rows of a jagged double[][][].
+ *
+ * A Tensor can either own its buffer or be a view onto a region of a larger buffer, which lets
+ * all of the trainable parameters of the network share one contiguous block of memory.
+ */
+public class Tensor {
+
+    private final double[] data;
+    private final int offset;
+    private final int[] shape;
+    private final int[] strides;
+    private final int size;
+
+    /**
+     * Creates a zero-filled tensor that owns its own buffer
+     * @param shape - the size of each dimension, outermost first
+     */
+    public Tensor(int... shape) {
+        this(new double[volume(shape)], 0, shape);
+    }
+
+    /**
+     * Creates a tensor that views a region of an existing buffer
+     * @param data - the backing buffer
+     * @param offset - the index in the buffer of the first element of the tensor
+     * @param shape - the size of each dimension, outermost first
+     */
+    public Tensor(double[] data, int offset, int... shape) {
+        this.data = data;
+        this.offset = offset;
+        this.shape = shape.clone();
+        this.size = volume(shape);
+        this.strides = new int[shape.length];
+        int stride = 1;
+        for(int d = shape.length - 1; d >= 0; d--){
+            this.strides[d] = stride;
+            stride *= shape[d];
+        }
+        if(offset < 0 || offset + size > data.length){
+            throw new IllegalArgumentException("Tensor of shape " + Arrays.toString(shape)
+                    + " at offset " + offset + " does not fit in a buffer of length " + data.length);
+        }
+    }
+
+    /**
+     * The number of elements described by the given shape
+     * @param shape - int[]
+     * @return the product of all dimensions
+     */
+    public static int volume(int... shape) {
+        int volume = 1;
+        for(int dim : shape){
+            volume *= dim;
+        }
+        return volume;
+    }
+
+    /**
+     * @return the backing buffer. Element (i, j, k) lives at offset() + i*stride(0) + j*stride(1) + k
+     */
+    public double[] data() {
+        return data;
+    }
+
+    /**
+     * @return the index in data() of the first element of this tensor
+     */
+    public int offset() {
+        return offset;
+    }
+
+    /**
+     * @return the total number of elements in the tensor
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of dimensions
+     */
+    public int rank() {
+        return shape.length;
+    }
+
+    /**
+     * @param dim - the dimension
+     * @return the size of the given dimension
+     */
+    public int size(int dim) {
+        return shape[dim];
+    }
+
+    /**
+     * @param dim - the dimension
+     * @return how many elements apart two neighbours along the given dimension are
+     */
+    public int stride(int dim) {
+        return strides[dim];
+    }
+
+    /**
+     * @return a copy of the shape of the tensor
+     */
+    public int[] shape() {
+        return shape.clone();
+    }
+
+    /**
+     * @param i - the index along the first dimension
+     * @return the index in data() of the first element of the i'th slice
+     */
+    public int offset(int i) {
+        return offset + i*strides[0];
+    }
+
+    /**
+     * @return the index in data() of element (i, j)
+     */
+    public int offset(int i, int j) {
+        return offset + i*strides[0] + j*strides[1];
+    }
+
+    /**
+     * @return the index in data() of element (i, j, k)
+     */
+    public int offset(int i, int j, int k) {
+        return offset + i*strides[0] + j*strides[1] + k*strides[2];
+    }
+
+    public double get(int i) {
+        return data[offset + i];
+    }
+
+    public double get(int i, int j) {
+        return data[offset(i, j)];
+    }
+
+    public double get(int i, int j, int k) {
+        return data[offset(i, j, k)];
+    }
+
+    public void set(int i, double value) {
+        data[offset + i] = value;
+    }
+
+    public void set(int i, int j, double value) {
+        data[offset(i, j)] = value;
+    }
+
+    public void set(int i, int j, int k, double value) {
+        data[offset(i, j, k)] = value;
+    }
+
+    /**
+     * Adds to a single element of the tensor, treating it as flat
+     * @param i - the flat index
+     * @param value - the amount to add
+     */
+    public void add(int i, double value) {
+        data[offset + i] += value;
+    }
+
+    /**
+     * Sets every element of the tensor to the given value
+     * @param value - double
+     */
+    public void fill(double value) {
+        Arrays.fill(data, offset, offset + size, value);
+    }
+
+    /**
+     * Returns a view of the i'th slice along the first dimension, sharing this tensor's buffer
+     * @param i - the index along the first dimension
+     * @return a Tensor of rank - 1
+     */
+    public Tensor slice(int i) {
+        return new Tensor(data, offset(i), Arrays.copyOfRange(shape, 1, shape.length));
+    }
+
+    /**
+     * Copies the contents of this tensor into a new, owned buffer
+     * @return a double[] of length size()
+     */
+    public double[] toArray() {
+        return Arrays.copyOfRange(data, offset, offset + size);
+    }
+
+    /**
+     * Copies the contents of a 2D matrix into a new tensor of the same shape
+     * @param matrix - double[][]
+     * @return the Tensor holding the matrix
+     */
+    public static Tensor of(double[][] matrix) {
+        Tensor tensor = new Tensor(matrix.length, matrix[0].length);
+        for(int i = 0; i < matrix.length; i++){
+            System.arraycopy(matrix[i], 0, tensor.data, tensor.offset(i), matrix[i].length);
+        }
+        return tensor;
+    }
+
+    @Override
+    public String toString() {
+        return "Tensor" + Arrays.toString(shape);
+    }
+}
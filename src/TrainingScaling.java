@@ -0,0 +1,72 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Trains LeNet5 with data-parallel mini-batch gradient descent on 1, 2, 4, ... threads up to the
+ * number of cores, every run from the same starting weights, and prints the epoch time, speedup
+ * and test accuracy of each. The largest thread count is trained twice, and the program exits
+ * with status 1 if the two runs do not end with exactly the same weights.
+ *
+ * Usage: TrainingScaling [epochs] [learning rate] [batch size]
+ */
+public class TrainingScaling {
+
+    /**
+     * Main method
+     * @param args - String[]
+     */
+    public static void main(String[] args){
+        int epochs = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        double learningRate = args.length > 1 ? Double.parseDouble(args[1]) : 0.4;
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+        MnistDataset trainingSet;
+        MnistDataset testSet;
+        try{
+            trainingSet = MnistDataset.loadTrainingSet();
+            testSet = MnistDataset.loadTestSet();
+        }catch(IOException e){
+            System.err.println(e);
+            return;
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("%-8s %14s %10s %10s%n", "threads", "epoch (s)", "speedup", "accuracy");
+        double baseline = 0;
+        double[] lastWeights = null;
+        for(int threads = 1; ; threads = Math.min(2*threads, cores)){
+            long start = System.nanoTime();
+            LeNet5 net = train(trainingSet, threads, epochs, learningRate, batchSize);
+            double seconds = (System.nanoTime() - start)/1e9/epochs;
+            if(threads == 1){
+                baseline = seconds;
+            }
+            System.out.printf("%-8d %14.2f %9.2fx %9.2f%%%n", threads, seconds, baseline/seconds, 100*net.testNetworkImages(testSet).accuracy());
+            lastWeights = net.weights().data();
+            if(threads == cores){
+                break;
+            }
+        }
+
+        LeNet5 repeat = train(trainingSet, cores, epochs, learningRate, batchSize);
+        if(!Arrays.equals(lastWeights, repeat.weights().data())){
+            System.out.printf("FAILED: two runs on %d threads trained different weights%n", cores);
+            System.exit(1);
+        }
+        System.out.printf("PASSED: two runs on %d threads trained identical weights%n", cores);
+    }
+
+    /**
+     * Trains a network from the weights initNetwork() draws from the default weight seed
+     * @return the trained network
+     */
+    private static LeNet5 train(MnistDataset trainingSet, int threads, int epochs, double learningRate, int batchSize){
+        LeNet5 net = new LeNet5();
+        net.initNetwork(trainingSet);
+        net.setTrainingThreads(threads);
+        net.setLearningRate(learningRate);
+        net.setBatchSize(batchSize);
+        net.trainNetwork(epochs);
+        return net;
+    }
+}
@@ -0,0 +1,210 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Every kernel written with the jdk.incubator.vector API at the CPU's preferred vector width,
+ * 4 doubles or 8 floats with AVX2 and twice as many with AVX-512. Dot products accumulate whole
+ * vectors with fused multiply-adds and reduce the lanes once at the end. A convolution row is
+ * computed one vector of output pixels at a time: every filter tap is broadcast and multiplied
+ * with the input pixels it touches for all of those outputs at once. The int8 kernels load a
+ * quarter-width vector of bytes and sign-extend it into a full vector of ints, which C2 compiles
+ * to a single widening load, then multiply and add in int32. Leftover elements use scalar loops.
+ *
+ * Needs java --add-modules jdk.incubator.vector at compile and run time; Kernels only loads
+ * this class when the module is present.
+ */
+public class VectorApiKernels implements Kernels {
+
+    private static final VectorSpecies<Double> species = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> floatSpecies = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> intSpecies = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> byteSpecies =
+            VectorSpecies.of(byte.class, VectorShape.forBitSize(intSpecies.vectorBitSize()/4));
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        DoubleVector sums = DoubleVector.zero(species);
+        int i = 0;
+        for(int upper = species.loopBound(length); i < upper; i += species.length()){
+            DoubleVector x = DoubleVector.fromArray(species, a, aOffset + i);
+            DoubleVector y = DoubleVector.fromArray(species, b, bOffset + i);
+            sums = x.fma(y, sums);
+        }
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for(; i < length; i++){
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        //A separate multiply and add measured faster here than fma, which C2 compiled less tightly
+        DoubleVector scale = DoubleVector.broadcast(species, alpha);
+        int i = 0;
+        for(int upper = species.loopBound(length); i < upper; i += species.length()){
+            DoubleVector.fromArray(species, x, xOffset + i)
+                    .mul(scale).add(DoubleVector.fromArray(species, y, yOffset + i))
+                    .intoArray(y, yOffset + i);
+        }
+        for(; i < length; i++){
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void convolveRow(double[] input, int inputOffset, int rowStride, double[] filter, int filterOffset,
+                            double[] output, int outputOffset, int width) {
+        int j = 0;
+        for(int upper = species.loopBound(width); j < upper; j += species.length()){
+            DoubleVector sums = DoubleVector.zero(species);
+            int row = inputOffset + j;
+            int k = filterOffset;
+            for(int a = 0; a < LeNet5.filterWidth; a++){
+                for(int b = 0; b < LeNet5.filterHeight; b++){
+                    sums = DoubleVector.fromArray(species, input, row + b).fma(DoubleVector.broadcast(species, filter[k++]), sums);
+                }
+                row += rowStride;
+            }
+            sums.intoArray(output, outputOffset + j);
+        }
+        for(; j < width; j++){
+            double sum = 0;
+            int row = inputOffset + j;
+            int k = filterOffset;
+            for(int a = 0; a < LeNet5.filterWidth; a++){
+                for(int b = 0; b < LeNet5.filterHeight; b++){
+                    sum += input[row + b] * filter[k++];
+                }
+                row += rowStride;
+            }
+            output[outputOffset + j] = sum;
+        }
+    }
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector sums = FloatVector.zero(floatSpecies);
+        int i = 0;
+        for(int upper = floatSpecies.loopBound(length); i < upper; i += floatSpecies.length()){
+            FloatVector x = FloatVector.fromArray(floatSpecies, a, aOffset + i);
+            FloatVector y = FloatVector.fromArray(floatSpecies, b, bOffset + i);
+            sums = x.fma(y, sums);
+        }
+        float sum = sums.reduceLanes(VectorOperators.ADD);
+        for(; i < length; i++){
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        FloatVector scale = FloatVector.broadcast(floatSpecies, alpha);
+        int i = 0;
+        for(int upper = floatSpecies.loopBound(length); i < upper; i += floatSpecies.length()){
+            FloatVector.fromArray(floatSpecies, x, xOffset + i)
+                    .mul(scale).add(FloatVector.fromArray(floatSpecies, y, yOffset + i))
+                    .intoArray(y, yOffset + i);
+        }
+        for(; i < length; i++){
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void convolveRow(float[] input, int inputOffset, int rowStride, float[] filter, int filterOffset,
+                            float[] output, int outputOffset, int width) {
+        int j = 0;
+        for(int upper = floatSpecies.loopBound(width); j < upper; j += floatSpecies.length()){
+            FloatVector sums = FloatVector.zero(floatSpecies);
+            int row = inputOffset + j;
+            int k = filterOffset;
+            for(int a = 0; a < LeNet5.filterWidth; a++){
+                for(int b = 0; b < LeNet5.filterHeight; b++){
+                    sums = FloatVector.fromArray(floatSpecies, input, row + b).fma(FloatVector.broadcast(floatSpecies, filter[k++]), sums);
+                }
+                row += rowStride;
+            }
+            sums.intoArray(output, outputOffset + j);
+        }
+        for(; j < width; j++){
+            float sum = 0;
+            int row = inputOffset + j;
+            int k = filterOffset;
+            for(int a = 0; a < LeNet5.filterWidth; a++){
+                for(int b = 0; b < LeNet5.filterHeight; b++){
+                    sum += input[row + b] * filter[k++];
+                }
+                row += rowStride;
+            }
+            output[outputOffset + j] = sum;
+        }
+    }
+
+    @Override
+    public void convolveRowAdd(byte[] input, int inputOffset, int rowStride, byte[] filter, int filterOffset,
+                               int[] output, int outputOffset, int width) {
+        int j = 0;
+        for(int upper = intSpecies.loopBound(width); j < upper; j += intSpecies.length()){
+            IntVector sums = IntVector.fromArray(intSpecies, output, outputOffset + j);
+            int row = inputOffset + j;
+            int k = filterOffset;
+            for(int a = 0; a < LeNet5.filterWidth; a++){
+                for(int b = 0; b < LeNet5.filterHeight; b++){
+                    sums = widen(input, row + b).mul(filter[k++]).add(sums);
+                }
+                row += rowStride;
+            }
+            sums.intoArray(output, outputOffset + j);
+        }
+        for(; j < width; j++){
+            int sum = 0;
+            int row = inputOffset + j;
+            int k = filterOffset;
+            for(int a = 0; a < LeNet5.filterWidth; a++){
+                for(int b = 0; b < LeNet5.filterHeight; b++){
+                    sum += input[row + b] * filter[k++];
+                }
+                row += rowStride;
+            }
+            output[outputOffset + j] += sum;
+        }
+    }
+
+    @Override
+    public int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        IntVector sums = IntVector.zero(intSpecies);
+        int i = 0;
+        for(int upper = intSpecies.loopBound(length); i < upper; i += intSpecies.length()){
+            sums = widen(a, aOffset + i).mul(widen(b, bOffset + i)).add(sums);
+        }
+        int sum = sums.reduceLanes(VectorOperators.ADD);
+        for(; i < length; i++){
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * @return the int8 values at data[offset ..] sign-extended into one vector of ints
+     */
+    private static IntVector widen(byte[] data, int offset) {
+        return (IntVector)ByteVector.fromArray(byteSpecies, data, offset).castShape(intSpecies, 0);
+    }
+
+    @Override
+    public int lanes() {
+        return species.length();
+    }
+
+    @Override
+    public String name() {
+        return "Vector API, " + species.vectorBitSize() + "-bit";
+    }
+}
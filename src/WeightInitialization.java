@@ -0,0 +1,34 @@
+/**
+ * How initNetwork() draws the starting weights: every parameter is uniform in [-range, range),
+ * where the range depends on Fi, the fan-in of the node using the parameter.
+ */
+public enum WeightInitialization {
+
+    /**
+     * LeCun's fan-in rule, range = 2.4/Fi
+     */
+    LECUN {
+        @Override
+        double range(int Fi) {
+            return 2.4/Fi;
+        }
+    },
+
+    /**
+     * range = sqrt(3/Fi), a variance of 1/Fi, so every layer's weighted sums start with about the
+     * spread of its inputs. LeCun's rule assumes inputs with zero mean and unit variance; this
+     * network's pixels lie in [0, 1], and under LECUN it stays at chance for its first epochs
+     */
+    UNIT_VARIANCE {
+        @Override
+        double range(int Fi) {
+            return Math.sqrt(3.0/Fi);
+        }
+    };
+
+    /**
+     * @param Fi - the fan-in of the node using the parameter
+     * @return - the half-width of the uniform distribution the parameter is drawn from
+     */
+    abstract double range(int Fi);
+}
@@ -0,0 +1,86 @@
+/**
+ * All of the trainable parameters of a LeNet5 network. Every parameter tensor is a view onto
+ * one contiguous double[] so the whole model can be walked, copied or updated as a single array.
+ */
+public class Weights {
+
+    final Tensor c1Filters;
+    final Tensor c1Biases;
+    final Tensor s2Weights;
+    final Tensor s2Biases;
+    final Tensor c3Filters;
+    final Tensor c3Biases;
+    final Tensor s4Weights;
+    final Tensor s4Biases;
+    final Tensor c5Filters;
+    final Tensor c5Weights;
+    final Tensor c5Biases;
+    final Tensor f6Weights;
+    final Tensor f6Biases;
+    final Tensor outputWeights;
+
+    private final double[] data;
+    private final Tensor[] tensors;
+    private int next = 0;
+
+    /**
+     * Allocates a zero-filled set of parameters shaped for LeNet5
+     */
+    public Weights() {
+        this.data = new double[Tensor.volume(LeNet5.c1Size, LeNet5.filterWidth, LeNet5.filterHeight)
+                + 3*LeNet5.c1Size
+                + Tensor.volume(LeNet5.c3FilterNum, LeNet5.filterWidth, LeNet5.filterHeight)
+                + 3*LeNet5.c3Size
+                + Tensor.volume(LeNet5.c5Size, LeNet5.filterWidth, LeNet5.filterHeight)
+                + 2*LeNet5.c5Size
+                + Tensor.volume(LeNet5.f6Size, LeNet5.c5Size)
+                + LeNet5.f6Size
+                + Tensor.volume(LeNet5.outputSize, LeNet5.f6Size)];
+        this.c1Filters = view(LeNet5.c1Size, LeNet5.filterWidth, LeNet5.filterHeight);
+        this.c1Biases = view(LeNet5.c1Size);
+        this.s2Weights = view(LeNet5.s2Size);
+        this.s2Biases = view(LeNet5.s2Size);
+        this.c3Filters = view(LeNet5.c3FilterNum, LeNet5.filterWidth, LeNet5.filterHeight);
+        this.c3Biases = view(LeNet5.c3Size);
+        this.s4Weights = view(LeNet5.s4Size);
+        this.s4Biases = view(LeNet5.s4Size);
+        this.c5Filters = view(LeNet5.c5Size, LeNet5.filterWidth, LeNet5.filterHeight);
+        this.c5Weights = view(LeNet5.c5Size);
+        this.c5Biases = view(LeNet5.c5Size);
+        this.f6Weights = view(LeNet5.f6Size, LeNet5.c5Size);
+        this.f6Biases = view(LeNet5.f6Size);
+        this.outputWeights = view(LeNet5.outputSize, LeNet5.f6Size);
+        this.tensors = new Tensor[]{c1Filters, c1Biases, s2Weights, s2Biases, c3Filters, c3Biases,
+                s4Weights, s4Biases, c5Filters, c5Weights, c5Biases, f6Weights, f6Biases, outputWeights};
+    }
+
+    /**
+     * Carves the next tensor of the given shape out of the shared buffer
+     */
+    private Tensor view(int... shape) {
+        Tensor tensor = new Tensor(data, next, shape);
+        next += tensor.size();
+        return tensor;
+    }
+
+    /**
+     * @return the buffer every parameter tensor is a view of
+     */
+    public double[] data() {
+        return data;
+    }
+
+    /**
+     * @return the total number of trainable parameters
+     */
+    public int size() {
+        return data.length;
+    }
+
+    /**
+     * @return the parameter tensors in the order they are laid out in data()
+     */
+    public Tensor[] tensors() {
+        return tensors.clone();
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Every buffer one thread needs to feed an image through LeNet5 and backpropagate its error:
+ * the padded input, the activations of every layer, the intermediate values the backward pass
+ * reads, the error gradient of every layer and the accumulated weight gradients.
+ *
+ * A thread allocates one Workspace and reuses it for every sample, so neither the forward nor
+ * the backward pass allocates anything. Several threads can run forward passes against the same
+ * read-only Weights at once as long as each has its own Workspace.
+ */
+public class Workspace {
+
+    //Forward pass
+    final Tensor input = new Tensor(LeNet5.inputWidth, LeNet5.inputHeight);
+    final Tensor padded = new Tensor(1, LeNet5.c1Width + LeNet5.filterWidth - 1, LeNet5.c1Height + LeNet5.filterHeight - 1);
+    final Tensor c1 = new Tensor(LeNet5.c1Size, LeNet5.c1Width, LeNet5.c1Height);
+    final Tensor s2Means = new Tensor(LeNet5.s2Size, LeNet5.s2Width, LeNet5.s2Height);
+    final Tensor s2 = new Tensor(LeNet5.s2Size, LeNet5.s2Width, LeNet5.s2Height);
+    final Tensor c3 = new Tensor(LeNet5.c3Size, LeNet5.c3Width, LeNet5.c3Height);
+    final Tensor s4Means = new Tensor(LeNet5.s4Size, LeNet5.s4Width, LeNet5.s4Height);
+    final Tensor s4 = new Tensor(LeNet5.s4Size, LeNet5.s4Width, LeNet5.s4Height);
+    final Tensor c5Sums = new Tensor(LeNet5.c5Size);
+    final Tensor c5 = new Tensor(LeNet5.c5Size);
+    final Tensor f6 = new Tensor(LeNet5.f6Size);
+    final Tensor output = new Tensor(LeNet5.outputSize);
+
+    //Scratch space for convolution engines that unroll their input, sized for the largest layer
+    final double[] columns = new double[Math.max(LeNet5.filterWidth*LeNet5.filterHeight*LeNet5.c1Width*LeNet5.c1Height,
+            LeNet5.s2Size*LeNet5.filterWidth*LeNet5.filterHeight*LeNet5.c3Width*LeNet5.c3Height)];
+    final double[] c3Kernels = new double[LeNet5.c3Size*LeNet5.s2Size*LeNet5.filterWidth*LeNet5.filterHeight];
+    final double[] c5Column = new double[LeNet5.filterWidth*LeNet5.filterHeight];
+
+    //Scratch space for the fused C3 kernel: one S2 window and the running sum of every C3 map at one position
+    final double[] window = new double[LeNet5.filterWidth*LeNet5.filterHeight];
+    final double[] c3Sums = new double[LeNet5.c3Size];
+
+    //Scratch space for the fused convolution and subsampling kernels: the two rows of every map under one subsampled row
+    final double[] strip = new double[Math.max(2*LeNet5.c1Height, LeNet5.c3Size*2*LeNet5.c3Height)];
+
+    //Backward pass: the gradient of the error with respect to each layer's output
+    final Tensor c1Gradient = new Tensor(LeNet5.c1Size, LeNet5.c1Width, LeNet5.c1Height);
+    final Tensor s2Gradient = new Tensor(LeNet5.s2Size, LeNet5.s2Width, LeNet5.s2Height);
+    final Tensor c3Gradient = new Tensor(LeNet5.c3Size, LeNet5.c3Width, LeNet5.c3Height);
+    final Tensor s4Gradient = new Tensor(LeNet5.s4Size, LeNet5.s4Width, LeNet5.s4Height);
+    final Tensor c5Gradient = new Tensor(LeNet5.c5Size);
+    final Tensor f6Gradient = new Tensor(LeNet5.f6Size);
+    final Tensor outputGradient = new Tensor(LeNet5.outputSize);
+
+    //The gradient of the error with respect to every weight, summed over the samples since the last clear
+    final Weights gradients = new Weights();
+
+    /**
+     * @return the activations of the output layer from the last forward pass
+     */
+    public Tensor output() {
+        return output;
+    }
+
+    /**
+     * @return the weight gradients accumulated since they were last cleared
+     */
+    public Weights gradients() {
+        return gradients;
+    }
+}